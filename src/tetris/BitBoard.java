@@ -0,0 +1,176 @@
+package tetris;
+
+import java.util.Arrays;
+
+import tetris.ITetris.Piece;
+
+/**
+ * Occupancy of a tetris board stored as bitmasks, one or more 64 bit words per row.
+ * Bit x of row y is set when the tile at (x, y) is locked; column x lives in word
+ * x/64 of the row. The usual 10 wide board needs one word per row, so every row
+ * operation costs a single word operation, and wider boards only cost one more word
+ * per 64 columns. Only occupancy lives here; the colors of the locked tiles are kept
+ * separately by whoever needs to draw them.
+ */
+public class BitBoard {
+
+	protected final int width, height;
+	protected final int wordsPerRow;
+	protected final long lastWordMask;	// Bits of the last word of a row that are on the board
+	protected final long[] words;		// Row y is words[y*wordsPerRow] to words[(y+1)*wordsPerRow - 1]
+
+	/**
+	 * Creates an empty board
+	 */
+	public BitBoard(int width, int height) {
+		if (width < 1) throw new IllegalArgumentException("Board width must be positive, got "+width);
+		if (height < 1) throw new IllegalArgumentException("Board height must be positive, got "+height);
+
+		this.width = width;
+		this.height = height;
+		this.wordsPerRow = (width + 63) >>> 6;
+		int lastBits = width - (wordsPerRow-1)*64;
+		this.lastWordMask = (lastBits == 64) ? -1L : (1L << lastBits) - 1;
+		this.words = new long[height*wordsPerRow];
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getWordsPerRow() {
+		return wordsPerRow;
+	}
+
+	/**
+	 * Empties every row of the board
+	 */
+	public void clear() {
+		Arrays.fill(words, 0);
+	}
+
+	/**
+	 * Returns one word of the occupancy bitmask of row y. Bit i is set if the tile
+	 * (word*64 + i, y) is filled.
+	 */
+	public long getWord(int y, int word) {
+		return words[y*wordsPerRow + word];
+	}
+
+	/**
+	 * Returns true if the tile is filled. Tiles outside of the board count as filled.
+	 */
+	public boolean isFilled(int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height) return true;
+		return ((words[y*wordsPerRow + (x >>> 6)] >>> x) & 1) != 0;
+	}
+
+	/**
+	 * Marks the tile at (x, y) as filled. Must be a valid coordinate.
+	 */
+	public void fill(int x, int y) {
+		words[y*wordsPerRow + (x >>> 6)] |= (1L << x);
+	}
+
+	/**
+	 * Marks the tile at (x, y) as empty. Must be a valid coordinate.
+	 */
+	public void empty(int x, int y) {
+		words[y*wordsPerRow + (x >>> 6)] &= ~(1L << x);
+	}
+
+	/**
+	 * Marks every tile in row y as filled
+	 */
+	public void fillRow(int y) {
+		int last = (y+1)*wordsPerRow - 1;
+		Arrays.fill(words, y*wordsPerRow, last, -1L);
+		words[last] = lastWordMask;
+	}
+
+	/**
+	 * Marks every tile in row y as empty
+	 */
+	public void emptyRow(int y) {
+		Arrays.fill(words, y*wordsPerRow, (y+1)*wordsPerRow, 0);
+	}
+
+	/**
+	 * Replaces row to with a copy of row from
+	 */
+	public void copyRow(int from, int to) {
+		System.arraycopy(words, from*wordsPerRow, words, to*wordsPerRow, wordsPerRow);
+	}
+
+	/**
+	 * Returns true if every tile in row y is filled
+	 */
+	public boolean isRowFull(int y) {
+		int last = (y+1)*wordsPerRow - 1;
+		for (int i = y*wordsPerRow; i < last; i++) {
+			if (words[i] != -1L) return false;
+		}
+		return words[last] == lastWordMask;
+	}
+
+	/**
+	 * Checks a mask of tiles in row y against the board. Rows above the board never
+	 * collide, rows below the board always do.
+	 * @param y - row to test
+	 * @param x - board column of bit 0 of the mask
+	 * @param mask - tiles to test, must lie within the board's columns
+	 * @return true if any of the tiles in the mask are filled
+	 */
+	public boolean collides(int y, int x, int mask) {
+		if (y < 0) return false;
+		if (y >= height) return true;
+
+		int i = y*wordsPerRow + (x >>> 6);
+		int shift = x & 63;
+		if ((words[i] & ((long) mask << shift)) != 0) return true;
+
+		// Tiles that spill over into the next word
+		if (shift == 0) return false;
+		long spill = (long) mask >>> (64 - shift);
+		return spill != 0 && (words[i+1] & spill) != 0;
+	}
+
+	/**
+	 * Returns true if the piece lies within the walls and floor and overlaps no filled
+	 * tile. Tiles above the board are allowed.
+	 */
+	public boolean fits(Piece piece, int x, int y, int rotation) {
+		int left = x + piece.getLeftOffset(rotation);
+		if (left < 0 || x + piece.getRightOffset(rotation) > width-1) return false;
+
+		int top = y + piece.getTopOffset(rotation);
+		int bottom = y + piece.getBottomOffset(rotation);
+		if (bottom > height-1) return false;
+
+		for (int row = Math.max(top, 0); row <= bottom; row++) {
+			if (collides(row, left, piece.getRowMask(rotation, row - top))) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a copy of all occupancy words, top row first, getWordsPerRow() per row
+	 */
+	public long[] copyWords() {
+		return words.clone();
+	}
+
+	/**
+	 * Replaces all occupancy words
+	 * @param words - as returned by copyWords()
+	 */
+	public void setWords(long[] words) {
+		if (words.length != this.words.length) throw new IllegalArgumentException("Expected "+this.words.length+" words, got "+words.length);
+		System.arraycopy(words, 0, this.words, 0, words.length);
+	}
+
+}
@@ -0,0 +1,68 @@
+package tetris;
+
+import tetris.ITetris.Piece;
+
+/**
+ * Scores where the bot could lock a piece, see TetrisBot.setEvaluator(). The search adds
+ * up the scores of the pieces of a sequence and plays the first piece of the best one.
+ *
+ * <p>A score may only depend on the board, the piece, its position and the context, since
+ * the bot remembers scores by those. Evaluators are called from several threads at once
+ * when the bot searches on a pool, so they must not keep state between calls.</p>
+ */
+public interface BoardEvaluator {
+
+	/**
+	 * Scores a piece locked at a position on a board that does not contain it yet.
+	 * Tiles of the piece above the board are left out. Higher is better.
+	 * @param board - the locked tiles, which must not be changed
+	 */
+	public int evaluate(BoardView board, Piece piece, int x, int y, int rotation, Context context);
+
+	/**
+	 * Returns how many bank pieces after the hold the search looks through for an I piece
+	 * to tell Context.lineSoon. The hold itself always counts.
+	 */
+	public int getLineSoonPieces();
+
+	/**
+	 * The locked tiles of a board and their statistics, without copying anything
+	 */
+	public interface BoardView extends ITetris.BoardStats {
+
+		public int getWidth();
+
+		public int getHeight();
+
+		/**
+		 * Returns true if the tile is filled. Tiles outside of the board count as filled.
+		 */
+		public boolean isFilled(int x, int y);
+
+		/**
+		 * Returns the number of 64 bit words per row, see getWord()
+		 */
+		public int getWordsPerRow();
+
+		/**
+		 * Returns a word of a row: bit b of word w is the tile at x = w*64 + b
+		 */
+		public long getWord(int y, int word);
+
+	}
+
+	/**
+	 * What besides the board the game is in when the piece is placed
+	 */
+	public static final class Context {
+		public final int actionCombo, lineCombo;
+		public final boolean lineSoon;	// True if an I piece is in the hold or in the next getLineSoonPieces() of the bank
+
+		public Context(int actionCombo, int lineCombo, boolean lineSoon) {
+			this.actionCombo = actionCombo;
+			this.lineCombo = lineCombo;
+			this.lineSoon = lineSoon;
+		}
+	}
+
+}
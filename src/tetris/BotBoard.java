@@ -0,0 +1,117 @@
+package tetris;
+
+import tetris.ITetris.Piece;
+
+/**
+ * A copy of the locked tiles of a game for the bot to score placements against. It
+ * keeps the board statistics up to date, so scoring a placement only has to look at
+ * the columns and rows the piece touches. It also keeps a Zobrist hash of its filled
+ * tiles, so equal boards are recognized without comparing their tiles.
+ */
+public class BotBoard extends StatsBoard {
+
+	private long hash;	// Zobrist hash of the filled tiles
+
+	public BotBoard(int width, int height) {
+		super(width, height);
+	}
+
+	/**
+	 * Replaces the contents of this board with the locked tiles of a game of the same
+	 * size. Read it under ITetris.read() to get a consistent copy.
+	 */
+	public void copyFrom(ITetris tetris) {
+		if (tetris.getBoardWidth() != width || tetris.getBoardHeight() != height) {
+			throw new IllegalArgumentException("Cannot copy a "+tetris.getBoardWidth()+"x"+tetris.getBoardHeight()+" board into a "+width+"x"+height+" one");
+		}
+
+		clear();
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				if (tetris.isTileLocked(x, y)) fill(x, y);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the contents of this board with another board of the same size
+	 */
+	public void copyFrom(BotBoard other) {
+		System.arraycopy(other.words, 0, words, 0, words.length);
+		System.arraycopy(other.columnHeights, 0, columnHeights, 0, width);
+		System.arraycopy(other.columnFills, 0, columnFills, 0, width);
+		System.arraycopy(other.rowFills, 0, rowFills, 0, height);
+		holes = other.holes;
+		maxHeight = other.maxHeight;
+		hash = other.hash;
+	}
+
+	/**
+	 * Fills the tiles of a piece and removes the rows it completes. Tiles above the
+	 * board are left out.
+	 * @return the number of rows removed
+	 */
+	public int place(Piece piece, int x, int y, int rotation) {
+		for (int i = 0; i < Piece.NUM_CELLS; i++) {
+			int tileY = y + piece.getCellY(rotation, i);
+			if (tileY >= 0) fill(x + piece.getCellX(rotation, i), tileY);
+		}
+
+		int write = height-1;
+		for (int read = height-1; read >= 0; read--) {
+			if (rowFills[read] == width) continue;
+			if (write != read) copyRow(read, write);
+			write--;
+		}
+		for (int row = 0; row <= write; row++) {
+			emptyRow(row);
+		}
+		if (write >= 0) rowsRemoved(write+1);
+		return write+1;
+	}
+
+	/**
+	 * Returns the Zobrist hash of the filled tiles. Row operations leave it out of date
+	 * until rowsRemoved() or rowsInserted() is called, like the column statistics.
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	@Override
+	public void clear() {
+		super.clear();
+		hash = 0;
+	}
+
+	@Override
+	public void fill(int x, int y) {
+		super.fill(x, y);
+		hash ^= Zobrist.tile(x, y);
+	}
+
+	@Override
+	public void empty(int x, int y) {
+		super.empty(x, y);
+		hash ^= Zobrist.tile(x, y);
+	}
+
+	@Override
+	public void rowsRemoved(int count) {
+		super.rowsRemoved(count);
+		hash = Zobrist.hash(this);
+	}
+
+	@Override
+	public void rowsInserted(int count, int top) {
+		super.rowsInserted(count, top);
+		hash = Zobrist.hash(this);
+	}
+
+	@Override
+	protected void recount() {
+		super.recount();
+		hash = Zobrist.hash(this);
+	}
+
+}
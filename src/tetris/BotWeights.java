@@ -0,0 +1,151 @@
+package tetris;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The tunable numbers of ReferenceEvaluator: the score of each factor and
+ * the thresholds and scores of its special cases. Immutable; a bot plays with one set
+ * at a time, see TetrisBot.setWeights(). Sets are stored as text, one NAME=value line
+ * per weight, and weights left out keep their default.
+ */
+public final class BotWeights {
+
+	public static enum Weight {
+		ADJ_TILES(100),					// Score for each adjacent game piece
+		ADJ_WALLS(100),					// Score for adjacent walls and the bottom
+		HEIGHT(-100),					// Score for each additional height
+		SHADOW(-1000),					// Score for each empty space covered
+		BUBBLE(-100),					// Score for each empty space covered below a filled one
+		ROW_CLEAR(500),					// Score for completing a row
+		TETRIS(900000),					// Score for making a tetris
+		PERFECT(1200),					// Score for clearing the entire new block by completing rows
+		CLIFFS(-200),					// Score for each cliff depth created more than 2
+		ROW_CLEAR_PER_ACTION_COMBO(-100),	// Added to ROW_CLEAR for each action of the running combo
+		LEFT_COLUMN(-10000),			// Score for filling the left column before a tetris is possible
+
+		BUBBLE_POPPER_BUBBLES(10),		// More bubbles than this switch to the bubble popper case
+		BUBBLE_POPPER_SHADOW(-60000),
+		BUBBLE_POPPER_ROW_CLEAR(6000),
+
+		COMBO_ROW_CLEAR(400),			// Row clear score per line of a running line combo
+		COMBO_ROW_CLEAR_PER_ACTION(-2400),
+		COMBO_PERFECT_PER_ACTION(-1200),
+
+		CRITICAL_HEIGHT(12),			// Highest column at which the line breaking case starts, with no line piece soon
+		CRITICAL_HEIGHT_SCORE(-5000),
+		CRITICAL_ROW_CLEAR(6000),
+		CRITICAL_SHADOW(-800),
+		CRITICAL_ADJ_WALLS(0),
+		CRITICAL_ADJ_TILES(10),
+		CRITICAL_PERFECT(100000),
+
+		UNSAVED_LINE_PIECE(-300),		// Score for using a line piece when no other one is soon
+		LINE_SOON_PIECES(5);			// Number of pieces from the hold on a line piece counts as soon
+
+		private final int defaultValue;
+
+		private Weight(int defaultValue) {
+			this.defaultValue = defaultValue;
+		}
+
+		public int getDefault() {
+			return defaultValue;
+		}
+	}
+
+	private static final Weight[] WEIGHTS = Weight.values();
+
+	/**
+	 * The hand tuned weights the bot has always played with
+	 */
+	public static final BotWeights DEFAULT = new BotWeights(defaults());
+
+	private final int[] values;
+
+	/**
+	 * @param values - one value per Weight, in declaration order
+	 */
+	public BotWeights(int[] values) {
+		if (values.length != WEIGHTS.length) throw new IllegalArgumentException("Expected "+WEIGHTS.length+" weights, got "+values.length);
+		this.values = values.clone();
+	}
+
+	private static int[] defaults() {
+		int[] values = new int[WEIGHTS.length];
+		for (Weight weight : WEIGHTS) {
+			values[weight.ordinal()] = weight.defaultValue;
+		}
+		return values;
+	}
+
+	public int get(Weight weight) {
+		return values[weight.ordinal()];
+	}
+
+	public BotWeights with(Weight weight, int value) {
+		int[] values = this.values.clone();
+		values[weight.ordinal()] = value;
+		return new BotWeights(values);
+	}
+
+	/**
+	 * Returns the values in declaration order of Weight
+	 */
+	public int[] toArray() {
+		return values.clone();
+	}
+
+	/**
+	 * Parses NAME=value lines. Empty lines and lines starting with # are skipped.
+	 */
+	public static BotWeights parse(List<String> lines) {
+		int[] values = defaults();
+		for (String line : lines) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) continue;
+
+			int split = line.indexOf('=');
+			if (split < 0) throw new IllegalArgumentException("Weights must look like NAME=value, got "+line);
+			Weight weight = Weight.valueOf(line.substring(0, split).trim());
+			values[weight.ordinal()] = Integer.parseInt(line.substring(split+1).trim());
+		}
+		return new BotWeights(values);
+	}
+
+	public static BotWeights load(Path file) throws IOException {
+		return parse(Files.readAllLines(file, StandardCharsets.UTF_8));
+	}
+
+	public void save(Path file) throws IOException {
+		Files.write(file, toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof BotWeights)) return false;
+		return Arrays.equals(values, ((BotWeights) obj).values);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(values);
+	}
+
+	/**
+	 * Returns the weights as NAME=value lines, which parse() reads back
+	 */
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		for (Weight weight : WEIGHTS) {
+			text.append(weight.name()).append('=').append(values[weight.ordinal()]).append('\n');
+		}
+		return text.toString();
+	}
+
+}
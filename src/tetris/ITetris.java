@@ -30,6 +30,13 @@ public interface ITetris {
 	 */
 	public Color getTile(int x, int y);
 	
+	/**
+	 * Returns the locked tile at the position, ignoring the piece in play and its ghost. 
+	 * Returns Color.NONE for an empty tile. Must be a valid coordinate as specified by 
+	 * getBoardWidth() and getBoardHeight();
+	 */
+	public Color getLockedTile(int x, int y);
+	
 	/**
 	 * Returns true only if the tile at the given position is a locked in tile. The tetris piece that is currently
 	 * in play should show up in the tiles matrix but should return false for isTileLocked().
@@ -87,7 +94,20 @@ public interface ITetris {
 	public boolean moveRight();
 	
 	/**
-	 * Game control: Restarts the game
+	 * Game control: Plays a whole placement in one call. Swaps first if asked, then takes
+	 * the piece in play to the position along the fewest inputs that reach it and locks it
+	 * there. The game, and a replay being recorded, see the same inputs as if they had been
+	 * made one by one. Nothing happens if the position cannot be reached.
+	 * @param swap - true to swap with the hold first
+	 * @param packedPos - where to lock the piece, see PiecePos.pack(). Any rotation covering
+	 * the same tiles will do.
+	 * @return success - true if the piece was locked, else false (swap not allowed, position 
+	 * not reachable, game over)
+	 */
+	public boolean playPlacement(boolean swap, int packedPos);
+	
+	/**
+	 * Game control: Restarts the game. A replay being recorded records the restart.
 	 * @return true if a restart is allowed, false if not (for whatever reason)
 	 */
 	public boolean restart();
@@ -103,6 +123,13 @@ public interface ITetris {
 	 */
 	public PiecePos getPlayPiecePos();
 	
+	/**
+	 * Returns the position and rotation of the piece that is currently in play
+	 * packed into an int (see PiecePos.pack()), without allocating. May return 
+	 * PiecePos.PACKED_NONE if the game state does not have a piece.
+	 */
+	public int getPlayPiecePosPacked();
+	
 	/**
 	 * Returns whether this tetris implementation has a hold.
 	 * @return true if there is a hold, else false
@@ -144,6 +171,11 @@ public interface ITetris {
 	 */
 	public int getLinesCleared();
 	
+	/**
+	 * Return pieces locked into the board since last game over.
+	 */
+	public int getPiecesPlaced();
+	
 	/**
 	 * Return Number of back to back tetrises or T-spins. Not reset by placing a piece
 	 * only reset by clearing a line that isn't part of a tetris or T-spin.
@@ -156,6 +188,62 @@ public interface ITetris {
 	 */
 	public int getLineCombo();
 	
+	/**
+	 * Returns an immutable copy of the whole game state. All values read from one snapshot
+	 * are consistent with each other, so it may be read from any thread without locking.
+	 * Repeated calls without a state change in between may return the same object.
+	 */
+	public TetrisSnapshot snapshot();
+	
+	/**
+	 * Runs the reader while no move can change the game, so everything it reads through
+	 * this interface describes the same moment of the game, without copying the state
+	 * like snapshot() does. The reader must not make moves and should be quick.
+	 */
+	public void read(Runnable reader);
+	
+	/**
+	 * Returns statistics of the locked tiles that the game keeps up to date as pieces
+	 * lock and lines clear. This is a live, read-only view. Each value is read safely from
+	 * any thread, but values read one after the other may come from different moments,
+	 * unless they are read under read(). snapshot() holds a copy that does not change.
+	 */
+	public BoardStats getBoardStats();
+	
+	/**
+	 * Read-only statistics of the locked tiles of a board. Every value is available
+	 * without scanning the board.
+	 */
+	public interface BoardStats {
+		
+		/**
+		 * Returns the height of the highest locked tile in column x counted from the
+		 * floor (the bottom row is height 1), or 0 if the column is empty
+		 */
+		public int getColumnHeight(int x);
+		
+		/**
+		 * Returns the number of locked tiles in column x
+		 */
+		public int getColumnFill(int x);
+		
+		/**
+		 * Returns the number of locked tiles in row y
+		 */
+		public int getRowFill(int y);
+		
+		/**
+		 * Returns the number of empty tiles that have a locked tile somewhere above them
+		 */
+		public int getHoles();
+		
+		/**
+		 * Returns the highest column height
+		 */
+		public int getMaxHeight();
+		
+	}
+	
 	/**
 	 * Color enumeration. A list of tetris colors.
 	 */
@@ -210,12 +298,25 @@ public interface ITetris {
 				{{true, true}, {true, true}},
 			}, new int[] {1,1,1,1}, new int[] {1,1,1,1});
 		
+		/**
+		 * The number of tiles making up every piece
+		 */
+		public static final int NUM_CELLS = 4;
+		
 		private String name;
 		private Color color;
 		private int[] xPositions;
 		private int[] yPositions;
 		private boolean[][][] tiles;
 		
+		// Flattened per-rotation tables, indexed by rotation (0-3) or by rotation*4 + row/cell
+		private int[] widths, heights;
+		private int[] leftOffsets, rightOffsets, topOffsets, bottomOffsets;
+		private int[] rowMasks;
+		private int[] bottomProfiles;
+		private int[] cellXs, cellYs;
+		private int[] canonicalRotations;
+		
 		/**
 		 * Constructs a piece from all of its rotations in the form of 2 
 		 * dimensional boolean arrays of the smallest size and the rotated
@@ -229,6 +330,56 @@ public interface ITetris {
 			this.xPositions = xPositions;
 			this.yPositions = yPositions;
 			this.color = color;
+			
+			this.widths = new int[4];
+			this.heights = new int[4];
+			this.leftOffsets = new int[4];
+			this.rightOffsets = new int[4];
+			this.topOffsets = new int[4];
+			this.bottomOffsets = new int[4];
+			this.rowMasks = new int[16];
+			this.bottomProfiles = new int[16];
+			this.cellXs = new int[16];
+			this.cellYs = new int[16];
+			this.canonicalRotations = new int[4];
+			
+			for (int r = 0; r < 4; r++) {
+				boolean[][] solidity = tiles[r];
+				widths[r] = solidity.length;
+				heights[r] = solidity[0].length;
+				leftOffsets[r] = -xPositions[r];
+				rightOffsets[r] = widths[r] - 1 - xPositions[r];
+				topOffsets[r] = -yPositions[r];
+				bottomOffsets[r] = heights[r] - 1 - yPositions[r];
+				
+				int cell = 0;
+				for (int j = 0; j < heights[r]; j++) {
+					for (int i = 0; i < widths[r]; i++) {
+						if (!solidity[i][j]) continue;
+						rowMasks[r*4 + j] |= (1 << i);
+						cellXs[r*4 + cell] = i - xPositions[r];
+						cellYs[r*4 + cell] = j - yPositions[r];
+						cell++;
+						bottomProfiles[r*4 + i] = j - yPositions[r];
+					}
+				}
+				if (cell != NUM_CELLS) throw new IllegalStateException("Piece "+name+" must have "+NUM_CELLS+" tiles in every rotation");
+			}
+			
+			// Rotations with the same footprint all map to the lowest of them
+			for (int r = 0; r < 4; r++) {
+				int c = 0;
+				while (!sameFootprint(c, r)) c++;
+				canonicalRotations[r] = c;
+			}
+		}
+		
+		private boolean sameFootprint(int a, int b) {
+			if (widths[a] != widths[b] || heights[a] != heights[b]) return false;
+			for (int j = 0; j < heights[a]; j++) {
+				if (rowMasks[a*4 + j] != rowMasks[b*4 + j]) return false;
+			}
+			return true;
 		}
 		
 		/**
@@ -254,8 +405,7 @@ public interface ITetris {
 		 * @return boolean array of the smallest size representing this block rotation. [x][y] order
 		 */
 		public boolean[][] getRotation(int rotation) {
-			rotation = Math.floorMod(rotation, 4);
-			return tiles[rotation];
+			return tiles[rotation & 3];
 		}
 		
 		/**
@@ -265,7 +415,7 @@ public interface ITetris {
 		 * @return integer width of the piece in the current rotation
 		 */
 		public int getWidth(int rotation) {
-			return getRotation(rotation).length;
+			return widths[rotation & 3];
 		}
 		
 		/**
@@ -275,7 +425,7 @@ public interface ITetris {
 		 * @return integer height of the piece in the current rotation
 		 */
 		public int getHeight(int rotation) {
-			return getRotation(rotation)[0].length;
+			return heights[rotation & 3];
 		}
 		
 		/**
@@ -285,7 +435,7 @@ public interface ITetris {
 		 * @return integer offset from piece position to left-most tile (0 or negative value)
 		 */
 		public int getLeftOffset(int rotation) {
-			return -getCenterX(rotation);
+			return leftOffsets[rotation & 3];
 		}
 		
 		/**
@@ -295,7 +445,7 @@ public interface ITetris {
 		 * @return integer offset from piece position to right-most tile (0 or positive value)
 		 */
 		public int getRightOffset(int rotation) {
-			return getWidth(rotation) - 1 - getCenterX(rotation);
+			return rightOffsets[rotation & 3];
 		}
 		
 		/**
@@ -305,7 +455,7 @@ public interface ITetris {
 		 * @return integer offset from piece position to top-most tile (0 or negative value)
 		 */
 		public int getTopOffset(int rotation) {
-			return -getCenterY(rotation);
+			return topOffsets[rotation & 3];
 		}
 		
 		/**
@@ -315,7 +465,7 @@ public interface ITetris {
 		 * @return integer offset from piece position to bottom-most tile (0 or positive value)
 		 */
 		public int getBottomOffset(int rotation) {
-			return getHeight(rotation) - 1 - getCenterY(rotation);
+			return bottomOffsets[rotation & 3];
 		}
 		
 		/**
@@ -326,8 +476,7 @@ public interface ITetris {
 		 * @return
 		 */
 		public int getCenterX(int rotation) {
-			rotation = Math.floorMod(rotation, 4);
-			return xPositions[rotation];
+			return xPositions[rotation & 3];
 		}
 		
 		/**
@@ -338,24 +487,135 @@ public interface ITetris {
 		 * @return
 		 */
 		public int getCenterY(int rotation) {
-			rotation = Math.floorMod(rotation, 4);
-			return yPositions[rotation];
+			return yPositions[rotation & 3];
+		}
+		
+		/**
+		 * Returns the tiles of one row of the specified rotation as a bitmask. Bit 0 is the
+		 * left-most column of the piece, so shift the mask by the board x of the left-most
+		 * tile to test it against a board row.
+		 * @param rotation - integer number of rotations, wrapped onto the 0-3 range.
+		 * @param row - row of the piece counted from its top-most tile, 0 to getHeight(rotation)-1
+		 * @return bitmask of the solid tiles in that row
+		 */
+		public int getRowMask(int rotation, int row) {
+			return rowMasks[((rotation & 3) << 2) + row];
+		}
+		
+		/**
+		 * Returns the y offset from the piece position to the bottom-most tile of one column
+		 * of the specified rotation. Together with the heights of the board's columns this
+		 * tells where a dropped piece lands.
+		 * @param rotation - integer number of rotations, wrapped onto the 0-3 range.
+		 * @param column - column of the piece counted from its left-most tile, 0 to getWidth(rotation)-1
+		 */
+		public int getBottomProfile(int rotation, int column) {
+			return bottomProfiles[((rotation & 3) << 2) + column];
+		}
+		
+		/**
+		 * Returns the lowest rotation with the same footprint as the specified rotation:
+		 * with the top left corners of their tiles in the same place, both cover the same
+		 * tiles. O has one footprint, I, S and Z have two, the others four.
+		 * @param rotation - integer number of rotations, wrapped onto the 0-3 range.
+		 */
+		public int getCanonicalRotation(int rotation) {
+			return canonicalRotations[rotation & 3];
+		}
+		
+		/**
+		 * Returns the x offset from the piece position to one of its tiles.
+		 * @param rotation - integer number of rotations, wrapped onto the 0-3 range.
+		 * @param cell - tile index, 0 to NUM_CELLS-1. Tiles are ordered top to bottom, then left to right.
+		 */
+		public int getCellX(int rotation, int cell) {
+			return cellXs[((rotation & 3) << 2) + cell];
+		}
+		
+		/**
+		 * Returns the y offset from the piece position to one of its tiles.
+		 * @param rotation - integer number of rotations, wrapped onto the 0-3 range.
+		 * @param cell - tile index, 0 to NUM_CELLS-1. Tiles are ordered top to bottom, then left to right.
+		 */
+		public int getCellY(int rotation, int cell) {
+			return cellYs[((rotation & 3) << 2) + cell];
 		}
 	}
 	
+	/**
+	 * A piece position and rotation. Positions can also be packed into a single int
+	 * for code that must not allocate: the rotation is stored in bits 0-1, x in bits 
+	 * 2-13 and y in bits 14-25, both offset by PACKED_BIAS so that negative values fit.
+	 */
 	public static class PiecePos {
 		public int x, y, rotation;
 		
+		/**
+		 * A packed value that never describes a real position
+		 */
+		public static final int PACKED_NONE = -1;
+		
+		private static final int PACKED_BIAS = 2048;
+		private static final int PACKED_X_SHIFT = 2;
+		private static final int PACKED_Y_SHIFT = 14;
+		private static final int PACKED_MASK = 0xFFF;
+		
 		public static PiecePos getStartPosition(ITetris tetris) {
 			return new PiecePos(tetris.getBoardWidth()/2, 0, 0);
 		}
 		
+		public static int getStartPositionPacked(ITetris tetris) {
+			return pack(tetris.getBoardWidth()/2, 0, 0);
+		}
+		
+		/**
+		 * Packs a position into an int. x and y must be between -2048 and 2047.
+		 */
+		public static int pack(int x, int y, int rotation) {
+			return ((y + PACKED_BIAS) << PACKED_Y_SHIFT) | ((x + PACKED_BIAS) << PACKED_X_SHIFT) | (rotation & 3);
+		}
+		
+		public static int unpackX(int packed) {
+			return ((packed >>> PACKED_X_SHIFT) & PACKED_MASK) - PACKED_BIAS;
+		}
+		
+		public static int unpackY(int packed) {
+			return ((packed >>> PACKED_Y_SHIFT) & PACKED_MASK) - PACKED_BIAS;
+		}
+		
+		public static int unpackRotation(int packed) {
+			return packed & 3;
+		}
+		
+		/**
+		 * Returns a packed position moved by the given number of columns and rows
+		 */
+		public static int packedMove(int packed, int dx, int dy) {
+			return packed + (dx << PACKED_X_SHIFT) + (dy << PACKED_Y_SHIFT);
+		}
+		
+		/**
+		 * Returns a packed position rotated by the given number of clockwise turns
+		 */
+		public static int packedRotate(int packed, int turns) {
+			return (packed & ~3) | ((packed + turns) & 3);
+		}
+		
+		public static PiecePos unpack(int packed) {
+			if (packed == PACKED_NONE) return null;
+			return new PiecePos(unpackX(packed), unpackY(packed), unpackRotation(packed));
+		}
+		
 		public PiecePos(int x, int y, int rotation) {
 			this.x = x; 
 			this.y = y; 
 			this.rotation = Math.floorMod(rotation, 4);
 		}
 		
+		public int pack() {
+			return pack(x, y, rotation);
+		}
+		
 		public PiecePos copy() {
 			return new PiecePos(x, y, rotation);
 		}
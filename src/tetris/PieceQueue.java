@@ -0,0 +1,146 @@
+package tetris;
+
+import tetris.ITetris.Piece;
+
+/**
+ * The upcoming pieces of a game: the visible preview followed by the rest of the
+ * current bag, stored as piece ordinals in a fixed-capacity byte ring buffer.
+ * Taking the next piece and peeking at any preview depth are both O(1), and the
+ * randomizer is only asked for more pieces once a whole bag's worth has been used.
+ */
+public class PieceQueue {
+
+	private static final Piece[] PIECES = Piece.values();
+
+	/**
+	 * Number of pieces drawn from the randomizer at once, one full 7-bag
+	 */
+	private static final int BATCH_SIZE = PIECES.length;
+
+	private PieceRandomizer randomizer;
+	private final int numVisible;
+	private final byte[] ring;
+	private final int mask;
+	private int head, size;
+	private long drawn;
+
+	/**
+	 * @param randomizer - source of new pieces
+	 * @param numVisible - number of pieces that must always be available to peek at
+	 */
+	public PieceQueue(PieceRandomizer randomizer, int numVisible) {
+		if (numVisible < 0) throw new IllegalArgumentException("Number of visible pieces must not be negative, got "+numVisible);
+
+		this.randomizer = randomizer;
+		this.numVisible = numVisible;
+
+		int capacity = Integer.highestOneBit(numVisible + BATCH_SIZE) << 1;
+		this.ring = new byte[capacity];
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 * Empties the queue and refills it from the randomizer. Call before the first piece
+	 * is taken and whenever the game restarts.
+	 */
+	public void reset() {
+		head = 0;
+		size = 0;
+		drawn = 0;
+		randomizer.reset();
+		refill();
+	}
+
+	/**
+	 * Replaces the source of new pieces. Takes effect at the next reset().
+	 */
+	public void setRandomizer(PieceRandomizer randomizer) {
+		this.randomizer = randomizer;
+		this.drawn = 0;
+	}
+
+	/**
+	 * Puts the queue back into the state it had after the given number of pieces were
+	 * drawn from a randomizer. The randomizer must be new and equivalent to the one used
+	 * originally (e.g. a 7-bag with the same seed); the pieces before are drawn and dropped.
+	 * @param randomizer - new randomizer to replay and keep drawing from
+	 * @param drawn - pieces drawn from the original randomizer, see getDrawn()
+	 * @param queued - pieces that were in the queue, see getSize()
+	 */
+	public void restore(PieceRandomizer randomizer, long drawn, int queued) {
+		if (queued > ring.length || queued > drawn) throw new IllegalArgumentException("Cannot queue "+queued+" of "+drawn+" drawn pieces");
+
+		this.randomizer = randomizer;
+		for (long i = queued; i < drawn; i++) {
+			randomizer.next();
+		}
+		this.head = 0;
+		this.size = 0;
+		this.drawn = drawn - queued;
+		while (size < queued) {
+			draw();
+		}
+	}
+
+	/**
+	 * Removes and returns the next piece
+	 */
+	public Piece poll() {
+		Piece next = PIECES[ring[head]];
+		head = (head + 1) & mask;
+		size--;
+		if (size <= numVisible) refill();
+		return next;
+	}
+
+	/**
+	 * Returns the piece i places behind the next one without removing anything.
+	 * @param i - 0 to getNumVisible()-1 are always available
+	 */
+	public Piece peek(int i) {
+		if (i < 0 || i >= size) throw new IndexOutOfBoundsException("Cannot peek "+i+" pieces ahead, only "+size+" are queued");
+		return PIECES[ring[(head + i) & mask]];
+	}
+
+	public int getNumVisible() {
+		return numVisible;
+	}
+
+	/**
+	 * Returns the number of pieces in the queue, visible or not
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of pieces drawn from the current randomizer so far
+	 */
+	public long getDrawn() {
+		return drawn;
+	}
+
+	/**
+	 * Copies the visible pieces into a new array, next piece first
+	 */
+	public Piece[] copyVisible() {
+		Piece[] visible = new Piece[numVisible];
+		for (int i = 0; i < numVisible; i++) {
+			visible[i] = PIECES[ring[(head + i) & mask]];
+		}
+		return visible;
+	}
+
+	private void refill() {
+		while (size < numVisible + BATCH_SIZE) {
+			draw();
+		}
+	}
+
+	private void draw() {
+		ring[(head + size) & mask] = (byte) randomizer.next().ordinal();
+		size++;
+		drawn++;
+	}
+
+}
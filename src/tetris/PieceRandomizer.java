@@ -0,0 +1,120 @@
+package tetris;
+
+import java.util.SplittableRandom;
+
+import tetris.ITetris.Piece;
+
+/**
+ * Decides the order in which pieces are handed out to a game. Every game owns its
+ * randomizer, so seeded games are reproducible and parallel games never share a
+ * random number generator.
+ */
+public interface PieceRandomizer {
+
+	/**
+	 * Returns the next piece of the sequence
+	 */
+	public Piece next();
+
+	/**
+	 * Called when the game restarts. Discards partially drawn state such as a half
+	 * used bag. Random streams continue where they left off, fixed sequences start over.
+	 */
+	public void reset();
+
+	/**
+	 * The standard 7-bag: every run of seven pieces contains each piece exactly once,
+	 * in shuffled order. This ensures a fair and fun play.
+	 */
+	public static class SevenBag implements PieceRandomizer {
+		private static final Piece[] ALL = Piece.values();
+
+		private final SplittableRandom random;
+		private final Piece[] bag = ALL.clone();
+		private int drawn = bag.length;
+
+		public SevenBag(long seed) {
+			this(new SplittableRandom(seed));
+		}
+
+		public SevenBag(SplittableRandom random) {
+			this.random = random;
+		}
+
+		@Override
+		public Piece next() {
+			if (drawn == bag.length) fillBag();
+			return bag[drawn++];
+		}
+
+		/**
+		 * Shuffles the bag in place (Fisher-Yates). Call when the bag is empty.
+		 */
+		private void fillBag() {
+			for (int i = bag.length-1; i > 0; i--) {
+				int j = random.nextInt(i+1);
+				Piece swap = bag[i];
+				bag[i] = bag[j];
+				bag[j] = swap;
+			}
+			drawn = 0;
+		}
+
+		@Override
+		public void reset() {
+			drawn = bag.length;
+		}
+	}
+
+	/**
+	 * Every piece is drawn independently and uniformly at random
+	 */
+	public static class PureRandom implements PieceRandomizer {
+		private static final Piece[] ALL = Piece.values();
+
+		private final SplittableRandom random;
+
+		public PureRandom(long seed) {
+			this(new SplittableRandom(seed));
+		}
+
+		public PureRandom(SplittableRandom random) {
+			this.random = random;
+		}
+
+		@Override
+		public Piece next() {
+			return ALL[random.nextInt(ALL.length)];
+		}
+
+		@Override
+		public void reset() {}
+	}
+
+	/**
+	 * Repeats a fixed list of pieces forever. Useful for benchmarks and tests that need
+	 * the exact same pieces on every run.
+	 */
+	public static class FixedSequence implements PieceRandomizer {
+		private final Piece[] sequence;
+		private int index = 0;
+
+		public FixedSequence(Piece... sequence) {
+			if (sequence.length == 0) throw new IllegalArgumentException("Sequence must contain at least one piece");
+			this.sequence = sequence.clone();
+		}
+
+		@Override
+		public Piece next() {
+			Piece next = sequence[index++];
+			if (index == sequence.length) index = 0;
+			return next;
+		}
+
+		@Override
+		public void reset() {
+			index = 0;
+		}
+	}
+
+}
@@ -0,0 +1,242 @@
+package tetris;
+
+import java.util.Arrays;
+
+import tetris.ITetris.Piece;
+import tetris.ITetris.PiecePos;
+
+/**
+ * Finds every set of tiles a piece can lock on from where it is, and the fewest inputs
+ * that get it there. Rotations with the same footprint (see Piece.getCanonicalRotation())
+ * locking on the same tiles count as one placement. A breadth first search over
+ * (x, y, rotation) follows the same rules as TetrisImpl: moves into a wall do nothing,
+ * rotations are pushed back off the walls, and a piece locks when it cannot move down.
+ * Soft drops take the piece under overhangs, so tucks and spins are found as well as
+ * plain drops.
+ *
+ * <p>Every path ends with a hard drop. Among paths of the same length the one found
+ * first is kept, trying the inputs in the order MOVE_LEFT, MOVE_RIGHT, ROTATE_RIGHT,
+ * ROTATE_LEFT, SOFT_DROP. Placements are numbered in the order they are found, so the
+ * ones needing fewer inputs come first.</p>
+ *
+ * <p>A generator keeps its work arrays between calls and is not thread safe.</p>
+ */
+public class PlacementGenerator {
+
+	private static final Replay.Input[] MOVES = { Replay.Input.MOVE_LEFT, Replay.Input.MOVE_RIGHT,
+			Replay.Input.ROTATE_RIGHT, Replay.Input.ROTATE_LEFT, Replay.Input.SOFT_DROP };
+
+	private final int width, height;
+
+	// States are numbered (rotation*height + y)*width + x
+	private final long[] visited;		// Bit per state that was reached
+	private final long[] locked;		// Bit per footprint position that a placement locks at, see lockIndex()
+	private final int[] parent;			// State each reached state was first reached from
+	private final byte[] parentMove;	// Index in MOVES of the input that reached it
+	private final int[] levels;			// Number of inputs it takes to reach each reached state
+	private final int[] queue;
+
+	private final int[] placements;		// Lock position of each placement, packed
+	private final int[] lockIndices;
+	private final int[] lastStates;		// State each placement is hard dropped from
+	private final int[] inputCounts;
+	private int count;
+	private Piece piece;				// Piece of the last search
+
+	public PlacementGenerator(int width, int height) {
+		this.width = width;
+		this.height = height;
+		int states = 4*width*height;
+		this.visited = new long[(states + 63) >>> 6];
+		this.locked = new long[(4*width*(height+3) + 63) >>> 6];
+		this.parent = new int[states];
+		this.parentMove = new byte[states];
+		this.levels = new int[states];
+		this.queue = new int[states];
+		this.placements = new int[states];
+		this.lockIndices = new int[states];
+		this.lastStates = new int[states];
+		this.inputCounts = new int[states];
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Finds the placements of a piece starting at a packed position
+	 * @param board - locked tiles, of this generator's size
+	 * @return the number of placements, 0 if the piece does not fit at the start
+	 */
+	public int generate(StatsBoard board, Piece piece, int startPos) {
+		if (board.getWidth() != width || board.getHeight() != height) {
+			throw new IllegalArgumentException("Cannot search a "+board.getWidth()+"x"+board.getHeight()+" board with a "+width+"x"+height+" generator");
+		}
+		Arrays.fill(visited, 0);
+		Arrays.fill(locked, 0);
+		count = 0;
+		this.piece = piece;
+
+		int x = PiecePos.unpackX(startPos), y = PiecePos.unpackY(startPos), rotation = PiecePos.unpackRotation(startPos);
+		if (y < 0 || y >= height || !board.fits(piece, x, y, rotation)) return 0;
+
+		int surface = height - board.getMaxHeight();	// Highest row that has a filled tile, or the floor
+		int start = state(x, y, rotation);
+		set(visited, start);
+		levels[start] = 0;
+		int head = 0, tail = 0;
+		queue[tail++] = start;
+
+		while (head < tail) {
+			int s = queue[head++];
+			int level = levels[s];
+			x = s % width;
+			y = (s / width) % height;
+			rotation = s / (width*height);
+
+			// Hard drop from here, unless the piece was already dropped through here from the
+			// row above with no more inputs
+			int above = s - width;
+			if (y == 0 || !isSet(visited, above) || levels[above] > level) {
+				int lockY = board.dropY(piece, x, y, rotation);
+				int lock = lockIndex(piece, x, lockY, rotation);
+				if (!isSet(locked, lock)) {
+					set(locked, lock);
+					placements[count] = PiecePos.pack(x, lockY, rotation);
+					lockIndices[count] = lock;
+					lastStates[count] = s;
+					inputCounts[count] = level + 1;
+					count++;
+				}
+			}
+
+			for (int m = 0; m < MOVES.length; m++) {
+				int next = move(board, surface, piece, x, y, rotation, m);
+				if (next < 0 || isSet(visited, next)) continue;
+				set(visited, next);
+				parent[next] = s;
+				parentMove[next] = (byte) m;
+				levels[next] = level + 1;
+				queue[tail++] = next;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of placements found by the last search
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the packed lock position of placement i
+	 */
+	public int getPlacement(int i) {
+		return placements[i];
+	}
+
+	/**
+	 * Returns the number of inputs of the shortest path to placement i, hard drop included
+	 */
+	public int getInputCount(int i) {
+		return inputCounts[i];
+	}
+
+	/**
+	 * Returns the index of the placement locking on the same tiles as the last searched
+	 * piece at a packed position, or -1 if those tiles cannot be reached
+	 */
+	public int indexOf(int packedPos) {
+		int lock = lockIndex(piece, PiecePos.unpackX(packedPos), PiecePos.unpackY(packedPos), PiecePos.unpackRotation(packedPos));
+		for (int i = 0; i < count; i++) {
+			if (lockIndices[i] == lock) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the shortest input sequence to placement i, ending with HARD_DROP
+	 */
+	public Replay.Input[] getPath(int i) {
+		Replay.Input[] path = new Replay.Input[inputCounts[i]];
+		path[path.length-1] = Replay.Input.HARD_DROP;
+		int s = lastStates[i];
+		for (int step = path.length-2; step >= 0; step--) {
+			path[step] = MOVES[parentMove[s]];
+			s = parent[s];
+		}
+		return path;
+	}
+
+	/**
+	 * Returns the packed position of the piece before each input of the path to placement i
+	 */
+	public int[] getPathPositions(int i) {
+		int[] positions = new int[inputCounts[i]];
+		int s = lastStates[i];
+		for (int step = positions.length-1; step >= 0; step--) {
+			positions[step] = pack(s);
+			if (step > 0) s = parent[s];
+		}
+		return positions;
+	}
+
+	/**
+	 * Applies move m to a state the same way TetrisImpl does
+	 * @return the state moved to, or -1 if the piece does not move
+	 */
+	private int move(StatsBoard board, int surface, Piece piece, int x, int y, int rotation, int m) {
+		switch (MOVES[m]) {
+			case MOVE_LEFT: x--; break;
+			case MOVE_RIGHT: x++; break;
+			case ROTATE_RIGHT: rotation = (rotation+1) & 3; break;
+			case ROTATE_LEFT: rotation = (rotation+3) & 3; break;
+			case SOFT_DROP: y++; break;
+			default: return -1;
+		}
+
+		// Pushed back off the walls, see TetrisImpl.adjustPosition()
+		int left = x + piece.getLeftOffset(rotation);
+		if (left < 0) x -= left;
+		int right = x + piece.getRightOffset(rotation);
+		if (right > width-1) x -= right - (width-1);
+
+		// Above the highest filled tile only the walls can be in the way
+		if (y + piece.getBottomOffset(rotation) < surface) return (x + piece.getLeftOffset(rotation) < 0) ? -1 : state(x, y, rotation);
+		
+		if (y >= height || !board.fits(piece, x, y, rotation)) return -1;
+		return state(x, y, rotation);
+	}
+
+	/**
+	 * Numbers the tiles a piece covers by its canonical rotation and top left corner,
+	 * which is at most 3 rows above the board
+	 */
+	private int lockIndex(Piece piece, int x, int y, int rotation) {
+		int top = y + piece.getTopOffset(rotation) + 3;
+		return (piece.getCanonicalRotation(rotation)*(height+3) + top)*width + x + piece.getLeftOffset(rotation);
+	}
+
+	private int state(int x, int y, int rotation) {
+		return (rotation*height + y)*width + x;
+	}
+
+	private int pack(int state) {
+		return PiecePos.pack(state % width, (state / width) % height, state / (width*height));
+	}
+
+	private static boolean isSet(long[] bits, int i) {
+		return (bits[i >>> 6] & (1L << i)) != 0;
+	}
+
+	private static void set(long[] bits, int i) {
+		bits[i >>> 6] |= (1L << i);
+	}
+
+}
@@ -0,0 +1,111 @@
+package tetris;
+
+import tetris.ITetris.Piece;
+
+/**
+ * A cheap evaluator for fast modes: a weighted sum of four totals of the board after the
+ * piece locks, namely the sum of the column heights, the lines cleared, the holes and the
+ * bumpiness (the height differences between neighbouring columns). The totals come from
+ * the board's statistics and the piece's own tiles, without scanning any rows. A tile
+ * ending up on top of a cleared row is counted as if it stayed at its height, so the
+ * totals are approximate after a line clear.
+ *
+ * <p>The default weights are the ones Yiyuan Lee's genetic algorithm found for one piece
+ * lookahead: -0.510066 per height, 0.760666 per line, -0.35663 per hole and -0.184483
+ * per bump, scaled by 1000 and rounded. They are not BotWeights, which weigh the
+ * heuristics of ReferenceEvaluator, and WeightTuner does not tune them. The combos and
+ * the bank are ignored.</p>
+ */
+public class QuickEvaluator implements BoardEvaluator {
+
+	private final int scoreHeight, scoreLine, scoreHole, scoreBump;
+
+	public QuickEvaluator() {
+		this(-510, 761, -357, -184);
+	}
+
+	/**
+	 * Creates an evaluator with other weights, in the scale of the defaults
+	 * @param scoreHeight - score for each tile of the sum of the column heights
+	 * @param scoreLine - score for each line cleared
+	 * @param scoreHole - score for each empty tile below the top of its column
+	 * @param scoreBump - score for each tile of height difference between neighbouring columns
+	 */
+	public QuickEvaluator(int scoreHeight, int scoreLine, int scoreHole, int scoreBump) {
+		this.scoreHeight = scoreHeight;
+		this.scoreLine = scoreLine;
+		this.scoreHole = scoreHole;
+		this.scoreBump = scoreBump;
+	}
+
+	/**
+	 * Returns 0, whether a line piece is soon does not change the score
+	 */
+	@Override
+	public int getLineSoonPieces() {
+		return 0;
+	}
+
+	@Override
+	public int evaluate(BoardView board, Piece piece, int x, int y, int rotation, Context context) {
+		int width = board.getWidth();
+		int height = board.getHeight();
+		int left = x + piece.getLeftOffset(rotation);
+
+		// Heights of the columns under the piece, filled in the way StatsBoard.fill() does
+		int[] pieceHeights = new int[Piece.NUM_CELLS];
+		int pieceWidth = piece.getWidth(rotation);
+		for (int c = 0; c < pieceWidth; c++) {
+			pieceHeights[c] = board.getColumnHeight(left + c);
+		}
+		int holes = board.getHoles();
+		for (int c = 0; c < Piece.NUM_CELLS; c++) {
+			int j = y + piece.getCellY(rotation, c);
+			if (j < 0) continue;
+
+			int column = x + piece.getCellX(rotation, c) - left;
+			int tileHeight = height - j;
+			if (tileHeight > pieceHeights[column]) {
+				holes += tileHeight - pieceHeights[column] - 1;
+				pieceHeights[column] = tileHeight;
+			} else {
+				holes--;
+			}
+		}
+
+		int lines = 0;
+		int top = Math.max(y + piece.getTopOffset(rotation), 0);
+		int bottom = y + piece.getBottomOffset(rotation);
+		for (int j = top; j <= bottom; j++) {
+			int fill = board.getRowFill(j) + Integer.bitCount(piece.getRowMask(rotation, j - y - piece.getTopOffset(rotation)));
+			if (fill == width) lines++;
+		}
+
+		// Every column is at least as high as a full row, so a clear lowers all of them
+		// alike and leaves the bumpiness as it is
+		int heights = -lines*width, bumps = 0;
+		int last = 0;
+		for (int i = 0; i < width; i++) {
+			int h = (i >= left && i < left + pieceWidth) ? pieceHeights[i - left] : board.getColumnHeight(i);
+			heights += h;
+			if (i > 0) bumps += Math.abs(h - last);
+			last = h;
+		}
+
+		return heights*scoreHeight + lines*scoreLine + holes*scoreHole + bumps*scoreBump;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof QuickEvaluator)) return false;
+		QuickEvaluator other = (QuickEvaluator) obj;
+		return scoreHeight == other.scoreHeight && scoreLine == other.scoreLine
+				&& scoreHole == other.scoreHole && scoreBump == other.scoreBump;
+	}
+
+	@Override
+	public int hashCode() {
+		return ((scoreHeight*31 + scoreLine)*31 + scoreHole)*31 + scoreBump;
+	}
+
+}
@@ -0,0 +1,220 @@
+package tetris;
+
+import tetris.BotWeights.Weight;
+import tetris.ITetris.Piece;
+
+/**
+ * The bot's own heuristics, see the Algorithm section of the readme, scored with a set
+ * of BotWeights. Only the columns and rows the piece touches are looked at, everything
+ * else comes from the totals kept by the board.
+ */
+public class ReferenceEvaluator implements BoardEvaluator {
+
+	private final BotWeights weights;
+
+	public ReferenceEvaluator(BotWeights weights) {
+		this.weights = weights;
+	}
+
+	public BotWeights getWeights() {
+		return weights;
+	}
+
+	@Override
+	public int getLineSoonPieces() {
+		return weights.get(Weight.LINE_SOON_PIECES);
+	}
+
+	@Override
+	public int evaluate(BoardView board, Piece piece, int x, int y, int rotation, Context context) {
+
+		// Note: every heuristic of the bot is scored here, with the weights of BotWeights. Besides the
+		// ones read below, these include:
+		//	 LEFT_COLUMN for filling the left column before a tetris is possible
+		//	 UNSAVED_LINE_PIECE for using a line piece when no other one is soon (context.lineSoon)
+
+		BotWeights w = this.weights;
+		int scoreAdjTiles = w.get(Weight.ADJ_TILES);
+		int scoreAdjWalls = w.get(Weight.ADJ_WALLS);
+		int scoreHeight = w.get(Weight.HEIGHT);
+		int scoreShadow = w.get(Weight.SHADOW);
+		int scoreBubble = w.get(Weight.BUBBLE);
+		int scoreRowClear = w.get(Weight.ROW_CLEAR);
+		int scoreTetris = w.get(Weight.TETRIS);
+		int scorePerfect = w.get(Weight.PERFECT);
+		int scoreCliffs = w.get(Weight.CLIFFS);
+
+		int width = board.getWidth();
+		int height = board.getHeight();
+
+		int score = 0;
+		scoreRowClear += w.get(Weight.ROW_CLEAR_PER_ACTION_COMBO) * context.actionCombo;
+
+		int highestFill = 0;
+		boolean tetrisPossible = true;
+		int[] highestTile = new int[width];
+		for (int i = 0; i < width; i++) {
+			highestTile[i] = board.getColumnHeight(i);
+		}
+		int bubbles = board.getHoles();
+		int totalPieceHeight = 0;
+		int adjTiles = 0;
+		int adjWalls = 0;
+
+		// Add the piece to the column heights and bubbles, tiles above the board do not count
+		for (int c = 0; c < Piece.NUM_CELLS; c++) {
+			int i = x + piece.getCellX(rotation, c);
+			int j = y + piece.getCellY(rotation, c);
+			if (j < 0) continue;
+
+			int tileHeight = height - j;
+			if (tileHeight > highestTile[i]) {
+				bubbles += tileHeight - highestTile[i];
+				highestTile[i] = tileHeight;
+			}
+			bubbles--;
+
+			totalPieceHeight += tileHeight;
+
+			// Add points for adjacent tiles
+			if (i < width-1 && board.isFilled(i+1, j)) adjTiles++;
+			if (i > 0 && board.isFilled(i-1, j)) adjTiles++;
+			if (j < height-1 && board.isFilled(i, j+1)) adjTiles++;
+			if (j > 0 && board.isFilled(i, j-1)) adjTiles++;
+
+			// Add points for adjacent walls
+			if (j == 0) adjWalls++;
+			if (i == width-1) adjWalls++;
+			if (j == height-1) adjWalls++;
+		}
+
+		// Rows whose every tile is filled count as cleared
+		int top = y + piece.getTopOffset(rotation);
+		int bottom = y + piece.getBottomOffset(rotation);
+		int left = x + piece.getLeftOffset(rotation);
+		int right = x + piece.getRightOffset(rotation);
+		if (top < 0) top = 0;
+
+		int rowsCleared = 0;
+		for (int j = 0; j < height; j++) {
+			if (board.getRowFill(j) == width && (j < top || j > bottom)) rowsCleared++;
+		}
+		boolean noneLeft = true;
+		for (int j = top; j <= bottom; j++) {
+			int fill = board.getRowFill(j) + Integer.bitCount(piece.getRowMask(rotation, j - y - piece.getTopOffset(rotation)));
+			if (fill == width) rowsCleared++;
+			else noneLeft = false;
+		}
+
+		for (int i = 0; i < width; i++) {
+			if (highestTile[i] < 4 && i > 0) {
+				tetrisPossible = false;
+			}
+			highestFill = Math.max(highestFill, highestTile[i]);
+		}
+
+		// Adjacent to movable wall (tetris combo enforcer)
+		int borderLeft = (tetrisPossible ? 0 : 1);
+		for (int c = 0; c < Piece.NUM_CELLS; c++) {
+			if (x + piece.getCellX(rotation, c) == borderLeft && y + piece.getCellY(rotation, c) >= 0) adjWalls++;
+		}
+
+		// Discourage filling the left column before a tetris is available
+		if (!tetrisPossible && left < 1) score += w.get(Weight.LEFT_COLUMN);
+
+		// Bubble popper case
+		if (bubbles > w.get(Weight.BUBBLE_POPPER_BUBBLES)) {
+			scoreShadow = w.get(Weight.BUBBLE_POPPER_SHADOW);
+			scoreRowClear = w.get(Weight.BUBBLE_POPPER_ROW_CLEAR);
+		}
+
+		// Combo case
+		if (context.lineCombo > 0) {
+			int combo = context.lineCombo;
+			int actionCombo = context.actionCombo;
+
+			scoreRowClear = w.get(Weight.COMBO_ROW_CLEAR)*combo + w.get(Weight.COMBO_ROW_CLEAR_PER_ACTION)*actionCombo;
+			scorePerfect = scorePerfect + w.get(Weight.COMBO_PERFECT_PER_ACTION)*actionCombo;
+		}
+
+		// Line breaking case (critical height)
+		if (highestFill >= w.get(Weight.CRITICAL_HEIGHT) && !context.lineSoon) {
+			scoreHeight = w.get(Weight.CRITICAL_HEIGHT_SCORE);
+			scoreRowClear = w.get(Weight.CRITICAL_ROW_CLEAR);
+			scoreShadow = w.get(Weight.CRITICAL_SHADOW);
+			scoreAdjWalls = w.get(Weight.CRITICAL_ADJ_WALLS);
+			scoreAdjTiles = w.get(Weight.CRITICAL_ADJ_TILES);
+			scorePerfect = w.get(Weight.CRITICAL_PERFECT);
+		}
+
+		score += adjTiles * scoreAdjTiles;
+		score += adjWalls * scoreAdjWalls;
+
+		if (rowsCleared == 1) score += scoreRowClear/2;
+		else if (rowsCleared > 1 && rowsCleared < 4) score += rowsCleared*scoreRowClear;
+		else if (rowsCleared == 4) {
+			score += scoreTetris;
+		}
+
+		// Award lots of points for destroying the entire block with row clears
+		if (noneLeft) score += scorePerfect;
+
+		// Subtract points for not saving line pieces
+		if (piece == Piece.I && !context.lineSoon) score += w.get(Weight.UNSAVED_LINE_PIECE);
+
+		// Subtract points for 'cliffs'
+		int cliffLeft = 0, cliffRight = 0;
+		if (left > borderLeft) cliffLeft = highestTile[left] - highestTile[left-1];
+		cliffLeft = Math.max(cliffLeft-1, -1);
+		if (right < width-1) cliffRight = highestTile[right] - highestTile[right+1];
+		cliffRight = Math.max(cliffRight-1, -1);
+		score += cliffLeft*scoreCliffs;
+		score += cliffRight*scoreCliffs;
+
+		// Subtract points for height
+		score += totalPieceHeight*scoreHeight;
+
+		// Subtract points for shadows
+		int shadows = 0;
+		bubbles = 0;
+		for (int c = 0; c < Piece.NUM_CELLS; c++) {
+			int i = x + piece.getCellX(rotation, c);
+			int j = y + piece.getCellY(rotation, c);
+			if (j < 0) continue;
+
+			boolean solidTileFound = false;
+			for (int s = j+1; s < height; s++) {
+				if (isPiece(piece, x, y, rotation, i, s)) break;
+				if (board.isFilled(i, s)) {
+					solidTileFound = true;
+				} else {
+					if (!solidTileFound) shadows++;
+					else bubbles++;
+				}
+			}
+		}
+		score += shadows * scoreShadow;
+		score += bubbles * scoreBubble;
+
+		return score;
+	}
+
+	private static boolean isPiece(Piece piece, int x, int y, int rotation, int tileX, int tileY) {
+		for (int i = 0; i < Piece.NUM_CELLS; i++) {
+			if (x + piece.getCellX(rotation, i) == tileX && y + piece.getCellY(rotation, i) == tileY) return true;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof ReferenceEvaluator)) return false;
+		return weights.equals(((ReferenceEvaluator) obj).weights);
+	}
+
+	@Override
+	public int hashCode() {
+		return weights.hashCode();
+	}
+
+}
@@ -0,0 +1,114 @@
+package tetris;
+
+import tetris.ITetris.Piece;
+
+/**
+ * Constants of the binary replay format written by ReplayWriter and read by ReplayReader.
+ *
+ * <p>A replay file records one game. It starts with a header:</p>
+ * <pre>
+ *   int32   MAGIC
+ *   varint  board width
+ *   varint  board height
+ *   varint  number of banks
+ *   int64   seed of the 7-bag randomizer
+ * </pre>
+ * <p>followed by a stream of events, each one a single varint holding
+ * (ticks &lt;&lt; EVENT_BITS) | input code. "ticks" is the number of gravity ticks
+ * (ITetris.updateTick()) that happened since the previous event. The stream ends
+ * with an END event, whose ticks are the ones after the last input. Varints are
+ * unsigned LEB128: 7 bits per byte, lowest bits first, high bit set on every byte
+ * but the last.</p>
+ *
+ * <p>Every few hundred pieces the stream also contains a KEYFRAME event, written right
+ * after a piece locks. It is followed by the full game state at that moment (see
+ * Keyframe). After the END event comes an index of all keyframes, one fixed size
+ * entry each, and a fixed size trailer pointing at the index:</p>
+ * <pre>
+ *   index entry:  int32 pieces placed, int64 file offset of the keyframe state
+ *   trailer:      int64 file offset of the index, int32 number of entries, int32 INDEX_MAGIC
+ * </pre>
+ * <p>A reader can then jump to any piece by restoring the nearest keyframe before it
+ * and replaying only the events after it.</p>
+ *
+ * <p>A RESTART input starts the game over with the pieces still coming from the same
+ * randomizer, so the games after it are replayed from the header seed as well. Piece
+ * counts start over with them, and a keyframe of a later game could not be restored from
+ * the seed alone, so keyframes are only written until the first restart.</p>
+ */
+public final class Replay {
+
+	/**
+	 * "TRP1" in ASCII
+	 */
+	public static final int MAGIC = 0x54525031;
+
+	/**
+	 * Number of low bits of an event that hold the input code
+	 */
+	public static final int EVENT_BITS = 4;
+
+	/**
+	 * Input code of a keyframe event
+	 */
+	public static final int EVENT_KEYFRAME = 15;
+
+	/**
+	 * "TRPI" in ASCII, the last four bytes of a replay that has a keyframe index
+	 */
+	public static final int INDEX_MAGIC = 0x54525049;
+
+	public static final int INDEX_ENTRY_SIZE = 12;
+	public static final int TRAILER_SIZE = 16;
+
+	/**
+	 * The game controls a replay can record. The ordinal is the code written to the file.
+	 */
+	public static enum Input {
+		MOVE_LEFT, MOVE_RIGHT, ROTATE_RIGHT, ROTATE_LEFT, SOFT_DROP, HARD_DROP, SWAP, END, RESTART;
+
+		private static final Input[] VALUES = values();
+
+		public static Input fromCode(int code) {
+			if (code < 0 || code >= VALUES.length) throw new IllegalArgumentException("Unknown replay input code "+code);
+			return VALUES[code];
+		}
+
+		/**
+		 * Performs this input on a game
+		 */
+		public void apply(ITetris tetris) {
+			switch (this) {
+				case MOVE_LEFT: tetris.moveLeft(); return;
+				case MOVE_RIGHT: tetris.moveRight(); return;
+				case ROTATE_RIGHT: tetris.rotateRight(); return;
+				case ROTATE_LEFT: tetris.rotateLeft(); return;
+				case SOFT_DROP: tetris.softDrop(); return;
+				case HARD_DROP: tetris.hardDrop(); return;
+				case SWAP: tetris.swap(); return;
+				case RESTART: tetris.restart(); return;
+				case END:
+				default: return;
+			}
+		}
+	}
+
+	/**
+	 * Everything needed to resume a game from the moment a piece locked and the next
+	 * piece was put in play. Written as varints in field order; the occupancy words
+	 * as one varint each, then one color ordinal byte per locked tile in row-major order.
+	 */
+	public static class Keyframe {
+		public int piecesPlaced, score, linesCleared, actionCombo, lineCombo;
+		public Piece playPiece, holdPiece;
+		public int playPiecePos;
+		public boolean swapUsed;
+		public long piecesDrawn;	// Pieces drawn from the randomizer, see PieceQueue.getDrawn()
+		public int piecesQueued;	// Pieces waiting in the PieceQueue
+		public long[] words;		// Occupancy bitmasks, see BitBoard.copyWords()
+		public byte[] colors;		// Color ordinal per tile, indexed by y*width + x
+	}
+
+	private Replay() {}
+
+}
@@ -0,0 +1,308 @@
+package tetris;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import tetris.ITetris.Piece;
+
+/**
+ * Reads a replay written by ReplayWriter and re-simulates it through TetrisImpl.
+ * Replays opened from a file are memory-mapped and can seek to any piece through
+ * the keyframe index.
+ *
+ * <pre>java -cp ./bin tetris/ReplayReader game.replay [more.replay ...]
+ *java -cp ./bin tetris/ReplayReader game.replay -seek [piece]</pre>
+ */
+public class ReplayReader implements Closeable {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length >= 2 && args[1].equals("-seek")) {
+			try (ReplayReader reader = open(Paths.get(args[0]))) {
+				int piece = (args.length > 2) ? Integer.parseInt(args[2]) : 0;
+				print(args[0], reader.seek(piece));
+			}
+			return;
+		}
+		for (String file : args) {
+			try (ReplayReader reader = open(Paths.get(file))) {
+				print(file, reader.replay());
+			}
+		}
+	}
+
+	private static void print(String file, TetrisImpl tetris) {
+		System.out.println(file+": score "+tetris.getScore()+", lines "+tetris.getLinesCleared()
+				+", pieces "+tetris.getPiecesPlaced()+(tetris.isGameOver() ? ", game over" : ""));
+	}
+
+	private final ReadableByteChannel channel;	// Null if the whole replay is mapped into the buffer
+	private final ByteBuffer buffer;
+	private final int width, height, numBanks;
+	private final long seed;
+	private int eventsStart;		// Position of the first event, mapped replays only
+	private int indexStart = -1;	// Position of the keyframe index, or -1 if there is none
+	private int numKeyframes = 0;
+	private boolean ended = false;
+
+	/**
+	 * Memory-maps a replay file and reads its header and keyframe index
+	 */
+	public static ReplayReader open(Path path) throws IOException {
+		try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (file.size() > Integer.MAX_VALUE) throw new IOException("Replay is too large to map ("+file.size()+" bytes)");
+			return new ReplayReader(file.map(FileChannel.MapMode.READ_ONLY, 0, file.size()));
+		}
+	}
+
+	/**
+	 * Reads the replay header from the channel. Replays read this way cannot seek.
+	 * @param channel - source, closed together with this reader
+	 * @param bufferSize - bytes read from the channel at once
+	 */
+	public ReplayReader(ReadableByteChannel channel, int bufferSize) throws IOException {
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(bufferSize);
+		buffer.flip();
+
+		readHeader();
+		this.width = getVarint();
+		this.height = getVarint();
+		this.numBanks = getVarint();
+		this.seed = getLong();
+	}
+
+	/**
+	 * Reads a whole replay from a buffer, usually a mapped file
+	 */
+	public ReplayReader(MappedByteBuffer mapped) throws IOException {
+		this.channel = null;
+		this.buffer = mapped;
+
+		readHeader();
+		this.width = getVarint();
+		this.height = getVarint();
+		this.numBanks = getVarint();
+		this.seed = getLong();
+		this.eventsStart = buffer.position();
+
+		int trailer = buffer.limit() - Replay.TRAILER_SIZE;
+		if (trailer >= eventsStart && buffer.getInt(trailer + 12) == Replay.INDEX_MAGIC) {
+			long indexStart = buffer.getLong(trailer);
+			int numKeyframes = buffer.getInt(trailer + 8);
+			if (indexStart < eventsStart || indexStart + (long) numKeyframes * Replay.INDEX_ENTRY_SIZE != trailer) {
+				throw new IOException("Corrupt keyframe index in replay");
+			}
+			this.indexStart = (int) indexStart;
+			this.numKeyframes = numKeyframes;
+		}
+	}
+
+	private void readHeader() throws IOException {
+		int magic = (getByte() << 24) | (getByte() << 16) | (getByte() << 8) | getByte();
+		if (magic != Replay.MAGIC) throw new IOException("Not a replay file (bad magic number)");
+	}
+
+	public int getBoardWidth() {
+		return width;
+	}
+
+	public int getBoardHeight() {
+		return height;
+	}
+
+	public int getNumBanks() {
+		return numBanks;
+	}
+
+	/**
+	 * Returns the rules of the recorded game
+	 */
+	public TetrisRules getRules() {
+		return new TetrisRules(width, height, numBanks);
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Returns the number of keyframes in the index, 0 if the replay has none
+	 */
+	public int getNumKeyframes() {
+		return numKeyframes;
+	}
+
+	/**
+	 * Creates a game in the state the replay starts from
+	 */
+	public TetrisImpl createGame() {
+		return new TetrisImpl(getRules(), new PieceRandomizer.SevenBag(seed));
+	}
+
+	/**
+	 * Applies the next event to the game: its gravity ticks first, then its input.
+	 * @return false once the end of the replay has been reached
+	 */
+	public boolean step(ITetris tetris) throws IOException {
+		if (ended) return false;
+
+		int event = getVarint();
+		int ticks = event >>> Replay.EVENT_BITS;
+		int code = event & ((1 << Replay.EVENT_BITS) - 1);
+
+		for (int i = 0; i < ticks; i++) {
+			tetris.updateTick();
+		}
+		if (code == Replay.EVENT_KEYFRAME) {
+			// The game already is in this state
+			getKeyframe();
+			return true;
+		}
+		
+		Replay.Input input = Replay.Input.fromCode(code);
+		if (input == Replay.Input.END) {
+			ended = true;
+			return false;
+		}
+		input.apply(tetris);
+		return true;
+	}
+
+	/**
+	 * Re-simulates the remaining replay on a new game and returns the final state
+	 */
+	public TetrisImpl replay() throws IOException {
+		TetrisImpl tetris = createGame();
+		while (step(tetris));
+		return tetris;
+	}
+
+	/**
+	 * Re-simulates the replay up to the first moment the game in play has placed the given
+	 * number of pieces, or up to its end. A game that ends before that piece is followed
+	 * into the game after its restart, if there is one. Starts from the last keyframe at
+	 * or before that piece, so only the events after it are simulated.
+	 * @return a new game in the state at that moment
+	 */
+	public TetrisImpl seek(int piece) throws IOException {
+		if (channel != null) throw new UnsupportedOperationException("Only replays opened from a file can seek");
+
+		TetrisImpl tetris = createGame();
+		ended = false;
+
+		// Binary search for the last keyframe at or before the piece
+		int low = 0, high = numKeyframes-1, found = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (buffer.getInt(indexStart + mid*Replay.INDEX_ENTRY_SIZE) <= piece) {
+				found = mid;
+				low = mid+1;
+			} else {
+				high = mid-1;
+			}
+		}
+
+		if (found < 0) {
+			buffer.position(eventsStart);
+		} else {
+			buffer.position((int) buffer.getLong(indexStart + found*Replay.INDEX_ENTRY_SIZE + 4));
+			tetris.restoreKeyframe(getKeyframe(), new PieceRandomizer.SevenBag(seed));
+		}
+
+		while (tetris.getPiecesPlaced() < piece && step(tetris));
+		return tetris;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (channel != null) channel.close();
+	}
+
+	/**
+	 * Reads the state that follows a keyframe event
+	 */
+	private Replay.Keyframe getKeyframe() throws IOException {
+		Piece[] pieces = Piece.values();
+		
+		Replay.Keyframe keyframe = new Replay.Keyframe();
+		keyframe.piecesPlaced = getVarint();
+		keyframe.score = getVarint();
+		keyframe.linesCleared = getVarint();
+		keyframe.actionCombo = getVarint();
+		keyframe.lineCombo = getVarint();
+		keyframe.playPiece = pieces[getVarint()];
+		keyframe.playPiecePos = getVarint();
+		int hold = getVarint();
+		keyframe.holdPiece = (hold == 0) ? null : pieces[hold-1];
+		keyframe.swapUsed = getVarint() != 0;
+		keyframe.piecesDrawn = getVarlong();
+		keyframe.piecesQueued = getVarint();
+		
+		int wordsPerRow = (width + 63) >>> 6;
+		int numWords = getVarint();
+		if (numWords != height*wordsPerRow) throw new IOException("Keyframe has "+numWords+" occupancy words, expected "+(height*wordsPerRow));
+		keyframe.words = new long[numWords];
+		for (int i = 0; i < numWords; i++) {
+			keyframe.words[i] = getVarlong();
+		}
+		keyframe.colors = new byte[width*height];
+		for (int i = 0; i < numWords; i++) {
+			int tile = (i / wordsPerRow)*width + (i % wordsPerRow)*64;
+			for (long bits = keyframe.words[i]; bits != 0; bits &= bits-1) {
+				keyframe.colors[tile + Long.numberOfTrailingZeros(bits)] = (byte) getByte();
+			}
+		}
+		return keyframe;
+	}
+
+	private int getVarint() throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = getByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IOException("Malformed varint in replay");
+	}
+
+	private long getVarlong() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			int b = getByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IOException("Malformed varint in replay");
+	}
+
+	private long getLong() throws IOException {
+		long value = 0;
+		for (int i = 0; i < 8; i++) {
+			value = (value << 8) | getByte();
+		}
+		return value;
+	}
+
+	private int getByte() throws IOException {
+		if (!buffer.hasRemaining()) {
+			if (channel == null) throw new EOFException("Replay ended without an END event");
+			buffer.clear();
+			int read;
+			do {
+				read = channel.read(buffer);
+			} while (read == 0);
+			buffer.flip();
+			if (read < 0) throw new EOFException("Replay ended without an END event");
+		}
+		return buffer.get() & 0xFF;
+	}
+
+}
@@ -0,0 +1,199 @@
+package tetris;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Streams a replay (see Replay for the format) into a channel. Events are encoded
+ * into a small direct buffer that is only written out when full, so recording a
+ * game costs a few bytes of buffer work per input. Attach it to a game with
+ * TetrisImpl.setReplayWriter() before the first input. Every keyframeInterval pieces
+ * the game state is written as a keyframe, and close() appends the keyframe index.
+ */
+public class ReplayWriter implements Closeable {
+
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+	public static final int DEFAULT_KEYFRAME_INTERVAL = 256;
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer;
+	private final int width;
+	private long flushed = 0;	// Bytes written to the channel so far
+	private int pendingTicks = 0;
+	private boolean closed = false;
+	private boolean restarted = false;	// No more keyframes after a restart, see Replay
+
+	private int keyframeInterval = DEFAULT_KEYFRAME_INTERVAL;
+	private int numKeyframes = 0;
+	private int[] keyframePieces = new int[16];
+	private long[] keyframeOffsets = new long[16];
+
+	/**
+	 * Creates (or truncates) a replay file and writes its header
+	 */
+	public static ReplayWriter open(Path path, ITetris tetris, long seed) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		return new ReplayWriter(channel, DEFAULT_BUFFER_SIZE, tetris, seed);
+	}
+
+	/**
+	 * Writes the header of a replay for the given game into the channel
+	 * @param channel - destination, closed together with this writer
+	 * @param bufferSize - bytes buffered before the channel is written to
+	 * @param tetris - game being recorded, used for the rules in the header
+	 * @param seed - seed of the game's 7-bag randomizer
+	 */
+	public ReplayWriter(WritableByteChannel channel, int bufferSize, ITetris tetris, long seed) {
+		if (bufferSize < Replay.TRAILER_SIZE) throw new IllegalArgumentException("Buffer size must be at least 16 bytes, got "+bufferSize);
+
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(bufferSize);
+		this.width = tetris.getBoardWidth();
+
+		buffer.putInt(Replay.MAGIC);
+		putVarint(tetris.getBoardWidth());
+		putVarint(tetris.getBoardHeight());
+		putVarint(tetris.getNumBanks());
+		buffer.putLong(seed);
+	}
+
+	/**
+	 * Records one gravity tick
+	 */
+	public void tick() {
+		pendingTicks++;
+	}
+
+	/**
+	 * Records an input along with the ticks since the previous one
+	 */
+	public void input(Replay.Input input) {
+		if (closed) throw new IllegalStateException("Replay is already closed");
+		putVarint((pendingTicks << Replay.EVENT_BITS) | input.ordinal());
+		pendingTicks = 0;
+		if (input == Replay.Input.RESTART) restarted = true;
+	}
+
+	/**
+	 * Sets how many pieces are placed between keyframes, or 0 to write none
+	 */
+	public void setKeyframeInterval(int keyframeInterval) {
+		if (keyframeInterval < 0) throw new IllegalArgumentException("Keyframe interval must not be negative, got "+keyframeInterval);
+		this.keyframeInterval = keyframeInterval;
+	}
+
+	/**
+	 * Called by the game after a piece locked and the next one was put in play.
+	 * Writes a keyframe if one is due and the game was not restarted.
+	 */
+	public void pieceLocked(TetrisImpl tetris) {
+		if (restarted || keyframeInterval == 0 || tetris.getPiecesPlaced() % keyframeInterval != 0) return;
+		keyframe(tetris.captureKeyframe());
+	}
+
+	/**
+	 * Records a keyframe event along with the ticks since the previous event
+	 */
+	public void keyframe(Replay.Keyframe keyframe) {
+		if (closed) throw new IllegalStateException("Replay is already closed");
+		putVarint((pendingTicks << Replay.EVENT_BITS) | Replay.EVENT_KEYFRAME);
+		pendingTicks = 0;
+
+		if (numKeyframes == keyframePieces.length) {
+			keyframePieces = Arrays.copyOf(keyframePieces, numKeyframes*2);
+			keyframeOffsets = Arrays.copyOf(keyframeOffsets, numKeyframes*2);
+		}
+		keyframePieces[numKeyframes] = keyframe.piecesPlaced;
+		keyframeOffsets[numKeyframes] = flushed + buffer.position();
+		numKeyframes++;
+
+		putVarint(keyframe.piecesPlaced);
+		putVarint(keyframe.score);
+		putVarint(keyframe.linesCleared);
+		putVarint(keyframe.actionCombo);
+		putVarint(keyframe.lineCombo);
+		putVarint(keyframe.playPiece.ordinal());
+		putVarint(keyframe.playPiecePos);
+		putVarint(keyframe.holdPiece == null ? 0 : keyframe.holdPiece.ordinal()+1);
+		putVarint(keyframe.swapUsed ? 1 : 0);
+		putVarint(keyframe.piecesDrawn);
+		putVarint(keyframe.piecesQueued);
+		putVarint(keyframe.words.length);
+		for (long word : keyframe.words) {
+			putVarint(word);
+		}
+
+		// Only locked tiles have a color worth storing
+		int wordsPerRow = (width + 63) >>> 6;
+		for (int i = 0; i < keyframe.words.length; i++) {
+			int tile = (i / wordsPerRow)*width + (i % wordsPerRow)*64;
+			for (long bits = keyframe.words[i]; bits != 0; bits &= bits-1) {
+				if (!buffer.hasRemaining()) flushUnchecked();
+				buffer.put(keyframe.colors[tile + Long.numberOfTrailingZeros(bits)]);
+			}
+		}
+	}
+
+	/**
+	 * Ends the replay, writes the keyframe index, flushes the buffer and closes the channel
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		try {
+			input(Replay.Input.END);
+			closed = true;
+
+			long indexOffset = flushed + buffer.position();
+			for (int i = 0; i < numKeyframes; i++) {
+				if (buffer.remaining() < Replay.INDEX_ENTRY_SIZE) flush();
+				buffer.putInt(keyframePieces[i]);
+				buffer.putLong(keyframeOffsets[i]);
+			}
+			if (buffer.remaining() < Replay.TRAILER_SIZE) flush();
+			buffer.putLong(indexOffset);
+			buffer.putInt(numKeyframes);
+			buffer.putInt(Replay.INDEX_MAGIC);
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void putVarint(int value) {
+		putVarint(value & 0xFFFFFFFFL);
+	}
+
+	private void putVarint(long value) {
+		if (buffer.remaining() < 10) flushUnchecked();
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	private void flushUnchecked() {
+		try {
+			flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to write replay", e);
+		}
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			flushed += channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+}
@@ -0,0 +1,227 @@
+package tetris;
+
+import java.util.Arrays;
+
+import tetris.ITetris.Piece;
+
+/**
+ * A BitBoard that keeps the statistics of ITetris.BoardStats up to date as tiles are
+ * filled and emptied, so BoardEvaluators can read them directly. Filling or emptying a
+ * tile costs O(1), except that emptying the highest tile of a column searches down for
+ * the next one.
+ *
+ * <p>Row operations (copyRow, emptyRow, fillRow) keep the row fills only. Whoever moves
+ * rows around must finish with rowsRemoved() or rowsInserted() so the columns are
+ * brought up to date in O(width).</p>
+ */
+public class StatsBoard extends BitBoard implements BoardEvaluator.BoardView {
+
+	protected final int[] columnHeights;	// Height of the highest filled tile, 0 if the column is empty
+	protected final int[] columnFills;		// Number of filled tiles in the column
+	protected final int[] rowFills;			// Number of filled tiles in the row
+	protected int holes;					// Empty tiles below the highest tile of their column
+	protected int maxHeight;
+
+	public StatsBoard(int width, int height) {
+		super(width, height);
+		this.columnHeights = new int[width];
+		this.columnFills = new int[width];
+		this.rowFills = new int[height];
+	}
+
+	@Override
+	public void clear() {
+		super.clear();
+		Arrays.fill(columnHeights, 0);
+		Arrays.fill(columnFills, 0);
+		Arrays.fill(rowFills, 0);
+		holes = 0;
+		maxHeight = 0;
+	}
+
+	@Override
+	public void fill(int x, int y) {
+		super.fill(x, y);
+		columnFills[x]++;
+		rowFills[y]++;
+
+		int tileHeight = height - y;
+		if (tileHeight > columnHeights[x]) {
+			holes += tileHeight - columnHeights[x] - 1;
+			columnHeights[x] = tileHeight;
+			if (tileHeight > maxHeight) maxHeight = tileHeight;
+		} else {
+			holes--;
+		}
+	}
+
+	@Override
+	public void empty(int x, int y) {
+		super.empty(x, y);
+		columnFills[x]--;
+		rowFills[y]--;
+
+		int oldHeight = columnHeights[x];
+		if (height - y == oldHeight) {
+			int newHeight = findColumnHeight(x, oldHeight-1);
+			holes -= oldHeight - newHeight - 1;
+			columnHeights[x] = newHeight;
+			if (oldHeight == maxHeight) updateMaxHeight();
+		} else {
+			holes++;
+		}
+	}
+
+	@Override
+	public void fillRow(int y) {
+		super.fillRow(y);
+		rowFills[y] = width;
+	}
+
+	@Override
+	public void emptyRow(int y) {
+		super.emptyRow(y);
+		rowFills[y] = 0;
+	}
+
+	@Override
+	public void copyRow(int from, int to) {
+		super.copyRow(from, to);
+		rowFills[to] = rowFills[from];
+	}
+
+	/**
+	 * Brings the columns up to date after full rows were removed and the rows above
+	 * them moved down
+	 * @param count - number of rows removed
+	 */
+	public void rowsRemoved(int count) {
+		// Every removed row was below the highest tile of each column, so the highest
+		// tile moved down by count at most
+		for (int x = 0; x < width; x++) {
+			columnFills[x] -= count;
+			columnHeights[x] = findColumnHeight(x, Math.max(columnHeights[x] - count, 0));
+		}
+		updateHolesAndMaxHeight();
+	}
+
+	/**
+	 * Brings the columns up to date after full rows were put back in with rows above
+	 * them moved up, as when a line clear is undone
+	 * @param count - number of rows inserted
+	 * @param top - the highest row inserted
+	 */
+	public void rowsInserted(int count, int top) {
+		// The highest tile moved up by count at most, or it is in the inserted rows
+		for (int x = 0; x < width; x++) {
+			columnFills[x] += count;
+			int upper = (columnHeights[x] == 0) ? 0 : Math.min(columnHeights[x] + count, height);
+			columnHeights[x] = findColumnHeight(x, Math.max(upper, height - top));
+		}
+		updateHolesAndMaxHeight();
+	}
+
+	/**
+	 * Returns the row a piece lands at when dropped straight down from a position it fits
+	 * at. Usually that is the highest landing row over the piece's columns, computed from
+	 * the column heights and the piece's bottom profile without any collision test. Only
+	 * if the piece starts below the highest tile of one of its columns, under an overhang,
+	 * is it moved down one row at a time instead.
+	 */
+	public int dropY(Piece piece, int x, int y, int rotation) {
+		int left = x + piece.getLeftOffset(rotation);
+		int landing = Integer.MAX_VALUE;
+		for (int c = piece.getWidth(rotation)-1; c >= 0; c--) {
+			int surface = height - columnHeights[left + c];	// Highest filled row, or the floor
+			landing = Math.min(landing, surface - 1 - piece.getBottomProfile(rotation, c));
+		}
+		if (landing >= y) return landing;
+
+		while (fits(piece, x, y+1, rotation)) y++;
+		return y;
+	}
+
+	@Override
+	public void setWords(long[] words) {
+		super.setWords(words);
+		recount();
+	}
+
+	/**
+	 * Recomputes every statistic from the occupancy words
+	 */
+	protected void recount() {
+		Arrays.fill(columnHeights, 0);
+		Arrays.fill(columnFills, 0);
+		for (int y = 0; y < height; y++) {
+			int fill = 0;
+			for (int w = 0; w < wordsPerRow; w++) {
+				long word = words[y*wordsPerRow + w];
+				fill += Long.bitCount(word);
+
+				for (long bits = word; bits != 0; bits &= bits-1) {
+					int x = w*64 + Long.numberOfTrailingZeros(bits);
+					if (columnHeights[x] == 0) columnHeights[x] = height - y;
+					columnFills[x]++;
+				}
+			}
+			rowFills[y] = fill;
+		}
+		updateHolesAndMaxHeight();
+	}
+
+	/**
+	 * Returns the height of the highest filled tile of column x that is not higher than start
+	 */
+	private int findColumnHeight(int x, int start) {
+		int word = x >>> 6;
+		for (int h = start; h > 0; h--) {
+			if (((words[(height - h)*wordsPerRow + word] >>> x) & 1) != 0) return h;
+		}
+		return 0;
+	}
+
+	private void updateMaxHeight() {
+		int max = 0;
+		for (int x = 0; x < width; x++) {
+			if (columnHeights[x] > max) max = columnHeights[x];
+		}
+		maxHeight = max;
+	}
+
+	private void updateHolesAndMaxHeight() {
+		int holes = 0, max = 0;
+		for (int x = 0; x < width; x++) {
+			holes += columnHeights[x] - columnFills[x];
+			if (columnHeights[x] > max) max = columnHeights[x];
+		}
+		this.holes = holes;
+		this.maxHeight = max;
+	}
+
+	@Override
+	public int getColumnHeight(int x) {
+		return columnHeights[x];
+	}
+
+	@Override
+	public int getColumnFill(int x) {
+		return columnFills[x];
+	}
+
+	@Override
+	public int getRowFill(int y) {
+		return rowFills[y];
+	}
+
+	@Override
+	public int getHoles() {
+		return holes;
+	}
+
+	@Override
+	public int getMaxHeight() {
+		return maxHeight;
+	}
+
+}
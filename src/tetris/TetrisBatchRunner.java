@@ -0,0 +1,165 @@
+package tetris;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import tetris.TetrisSimulator.GameResult;
+import tetris.TetrisSimulator.Statistics;
+
+/**
+ * Runs many independent seeded games across all cores. Games are spread over a
+ * ForkJoinPool and every worker thread reuses one engine and one bot for all of the
+ * games it plays. Game i of a batch uses the same seed as game i of TetrisSimulator,
+ * so both produce the same per-game results with the same search settings.
+ *
+ * <pre>java -cp ./bin tetris/TetrisBatchRunner [games] [pieceLimit] [seed] [threads] [replayDirectory] [searchDepth] [beamWidth]</pre>
+ *
+ * A replay directory of "-" records nothing. The search depth and beam width default to
+ * the ones of TetrisSimulator.
+ */
+public class TetrisBatchRunner {
+
+	public static void main(String[] args) {
+		int games = (args.length > 0) ? Integer.parseInt(args[0]) : 100;
+		int pieceLimit = (args.length > 1) ? Integer.parseInt(args[1]) : 10000;
+		long seed = (args.length > 2) ? Long.parseLong(args[2]) : System.nanoTime();
+		int threads = (args.length > 3) ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		Path replayDirectory = (args.length > 4 && !args[4].equals("-")) ? Paths.get(args[4]) : null;
+		int searchDepth = (args.length > 5) ? Integer.parseInt(args[5]) : TetrisSimulator.DEFAULT_SEARCH_DEPTH;
+		int beamWidth = (args.length > 6) ? Integer.parseInt(args[6]) : TetrisSimulator.DEFAULT_BEAM_WIDTH;
+
+		System.out.println("Simulating "+games+" games of up to "+pieceLimit+" pieces on "+threads+" threads, seed "+seed
+				+", search depth "+searchDepth+", beam width "+beamWidth);
+
+		TetrisBatchRunner runner = new TetrisBatchRunner(threads);
+		runner.setSearch(searchDepth, beamWidth);
+		try {
+			runner.run(seed, games, pieceLimit, replayDirectory).print(System.out);
+		} finally {
+			runner.shutdown();
+		}
+	}
+
+	private final ForkJoinPool pool;
+	private final ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+	private int searchDepth = TetrisSimulator.DEFAULT_SEARCH_DEPTH;
+	private int beamWidth = TetrisSimulator.DEFAULT_BEAM_WIDTH;
+
+	public TetrisBatchRunner(int threads) {
+		this.pool = new ForkJoinPool(threads);
+	}
+
+	/**
+	 * Sets the search depth and beam width of the bots, see TetrisBot.setSearchDepth()
+	 * and setBeamWidth(). Applies to the next run.
+	 */
+	public void setSearch(int searchDepth, int beamWidth) {
+		if (searchDepth < 1) throw new IllegalArgumentException("Search depth must be at least 1, got "+searchDepth);
+		if (beamWidth < 1) throw new IllegalArgumentException("Beam width must be at least 1, got "+beamWidth);
+		this.searchDepth = searchDepth;
+		this.beamWidth = beamWidth;
+	}
+
+	/**
+	 * Plays the games and blocks until all of them are finished
+	 * @param seed - seed of the whole batch. Game i plays TetrisSimulator.gameSeed(seed, i),
+	 * which mixes the game number in, so the games are independent of each other.
+	 * @param games - number of games to play
+	 * @param pieceLimit - maximum number of pieces per game
+	 * @return statistics over all games, in game order
+	 */
+	public Statistics run(long seed, int games, int pieceLimit) {
+		return run(seed, games, pieceLimit, null);
+	}
+
+	/**
+	 * Plays the games, recording each one into the replay directory as game-N.replay
+	 * @param replayDirectory - directory to record to, created if needed, or null to not record
+	 */
+	public Statistics run(long seed, int games, int pieceLimit, Path replayDirectory) {
+		GameResult[] results = new GameResult[games];
+		if (replayDirectory != null) {
+			try {
+				Files.createDirectories(replayDirectory);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to create "+replayDirectory, e);
+			}
+		}
+
+		long start = System.nanoTime();
+		pool.invoke(new GameRange(results, seed, pieceLimit, replayDirectory, 0, games));
+		long elapsed = System.nanoTime() - start;
+
+		Statistics stats = new Statistics();
+		for (GameResult result : results) {
+			stats.add(result);
+		}
+		stats.setElapsedNanos(elapsed);
+		return stats;
+	}
+
+	/**
+	 * Stops the worker threads. The runner cannot be used afterwards.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * One engine and bot pair per thread, reused for every game the thread plays
+	 */
+	private static class Worker {
+		final TetrisImpl tetris = new TetrisImpl(0);
+		final TetrisBot bot = new TetrisBot(tetris);
+	}
+
+	/**
+	 * Plays the games start (inclusive) to end (exclusive), splitting the range in
+	 * halves so idle threads can steal work.
+	 */
+	private class GameRange extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final GameResult[] results;
+		private final long seed;
+		private final int pieceLimit, start, end;
+		private final Path replayDirectory;
+
+		GameRange(GameResult[] results, long seed, int pieceLimit, Path replayDirectory, int start, int end) {
+			this.results = results;
+			this.seed = seed;
+			this.pieceLimit = pieceLimit;
+			this.replayDirectory = replayDirectory;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start > 1) {
+				int mid = (start + end) >>> 1;
+				invokeAll(new GameRange(results, seed, pieceLimit, replayDirectory, start, mid), 
+						new GameRange(results, seed, pieceLimit, replayDirectory, mid, end));
+				return;
+			}
+
+			for (int i = start; i < end; i++) {
+				Worker worker = workers.get();
+				worker.bot.setSearchDepth(searchDepth);
+				worker.bot.setBeamWidth(beamWidth);
+				try {
+					results[i] = TetrisSimulator.playGame(worker.tetris, worker.bot, TetrisSimulator.gameSeed(seed, i), pieceLimit, 
+							TetrisSimulator.replayFile(replayDirectory, i));
+				} catch (IOException e) {
+					throw new UncheckedIOException("Failed to record game "+i, e);
+				}
+			}
+		}
+	}
+
+}
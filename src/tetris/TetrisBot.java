@@ -1,6 +1,9 @@
 package tetris;
 
-import tetris.ITetris.Color;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 import tetris.ITetris.Piece;
 import tetris.ITetris.PiecePos;
 
@@ -9,7 +12,15 @@ import tetris.ITetris.PiecePos;
  * bot I coded. It's pretty skilled usually but has its 
  * quirks. The placement system is a calculation of the best
  * position to put the current piece or the piece in the hold
- * based on variables. See the calculateBoardScore() method.</p>
+ * based on variables. See ReferenceEvaluator, or setEvaluator()
+ * to score placements some other way.</p>
+ * 
+ * <p>With a search depth above 1 the bot also plans the next pieces
+ * of the bank. A beam search places them one after the other on
+ * copies of the board, keeping the best few boards after each piece,
+ * and plays the first placement of the best sequence. With setPool()
+ * the placements are scored on a ForkJoinPool, and the moves stay the
+ * same as without one.</p>
  * 
  * @author Gregary Pergrossi
  */
@@ -17,17 +28,30 @@ public class TetrisBot {
 		
 	private ITetris tetris;
 	
-	int scoreAdjTiles = 100;	// Score for each adjacent game piece
-	int scoreAdjWalls = 100;	// Score for adjacent walls and the bottom
-	int scoreHeight = -100;		// Score for each additional height
-	int scoreShadow = -1000;	// Score for each empty space covered
-	int scoreBubble = -100;		// Score for each empty space covered
-	int scoreRowClear = 500;	// Score for completing a row
-	int scoreTetris = 900000;	// Score for making a tetris
-	int scorePerfect = 1200;	// Score for clearing the entire new block by completing rows
-	int scoreCliffs = -200;		// Score for each cliff depth created more than 2;
+	BotWeights weights = BotWeights.DEFAULT;
+	BoardEvaluator evaluator = new ReferenceEvaluator(weights);
+	
+	int searchDepth = 3;		// Pieces placed per searched sequence, 1 is the current (or hold) piece only
+	int beamWidth = 8;			// Boards kept after each piece of the search
 	
 	ScoredPos bestPlacement;
+	int plannedPiecesPlaced;	// Pieces placed in the game when bestPlacement was chosen
+	Replay.Input[] path;		// Inputs to bestPlacement from where the piece was when the path was found
+	int[] pathPositions;		// Packed position of the piece before each input of the path
+	int pathStep;
+	
+	private final ThreadLocal<PlacementGenerator> generators = new ThreadLocal<>();	// Reachable placements, one generator per searching thread
+	final GameState state = new GameState();	// The game when the decision being made was planned
+	private final Runnable readState = () -> state.read(this.tetris, this.board);	// Reads state and board, see ITetris.read()
+	BotBoard board;	// Locked tiles of the decision being made, reused between decisions
+	BotBoard[] beamBoards, nextBeamBoards;	// Boards of the search, reused between decisions
+	ForkJoinPool pool;	// Scores the placements of a decision in parallel, null to score them on the calling thread
+	TranspositionTable<ScoredPos[]> evaluations = new TranspositionTable<>(DEFAULT_TABLE_SIZE);	// Scored placements by expansion hash, null to always score
+	
+	public static final int DEFAULT_TABLE_SIZE = 1024;
+	
+	// Kinds of state hashed into the key of an expansion, besides the tiles of the board
+	private static final int KEY_PIECE = 1, KEY_START = 2, KEY_LINE_SOON = 3, KEY_ACTION_COMBO = 4, KEY_LINE_COMBO = 5, KEY_PLY = 6;
 	
 	/**
 	 * Creates a new bot to play the tetris board given 
@@ -37,64 +61,209 @@ public class TetrisBot {
 		this.tetris = tetris;
 	}
 
+	/**
+	 * Sets how many pieces each searched sequence places: the current piece, then as many
+	 * bank pieces as fit. Deeper searches are limited by the number of banks.
+	 */
+	public void setSearchDepth(int searchDepth) {
+		if (searchDepth < 1) throw new IllegalArgumentException("Search depth must be at least 1, got "+searchDepth);
+		this.searchDepth = searchDepth;
+	}
+	
+	/**
+	 * Sets how many boards the search keeps after each piece
+	 */
+	public void setBeamWidth(int beamWidth) {
+		if (beamWidth < 1) throw new IllegalArgumentException("Beam width must be at least 1, got "+beamWidth);
+		this.beamWidth = beamWidth;
+	}
+
+	/**
+	 * Sets the weights placements are scored with, and how many pieces ahead a line
+	 * piece counts as soon. Replaces the evaluator with a ReferenceEvaluator, whose
+	 * getLineSoonPieces() is the LINE_SOON_PIECES weight.
+	 */
+	public void setWeights(BotWeights weights) {
+		this.weights = weights;
+		setEvaluator(new ReferenceEvaluator(weights));
+	}
+	
+	public BotWeights getWeights() {
+		return weights;
+	}
+
+	/**
+	 * Sets what scores the placements, a ReferenceEvaluator with the default weights
+	 * unless set. The evaluator also tells how far the search looks ahead for a line
+	 * piece, see BoardEvaluator.getLineSoonPieces().
+	 */
+	public void setEvaluator(BoardEvaluator evaluator) {
+		if (evaluator.equals(this.evaluator)) return;
+		this.evaluator = evaluator;
+		if (evaluations != null) evaluations.clear();	// Scored by the old evaluator
+		reset();
+	}
+	
+	public BoardEvaluator getEvaluator() {
+		return evaluator;
+	}
+
+	/**
+	 * Sets the pool the placements of each decision are scored on, or null to score them
+	 * on the thread that asks for the move. The bot plays the same moves either way.
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Sets how many expansions the bot remembers the scored placements of. The same board
+	 * is often reached again, by another order of pieces or by the next decision playing
+	 * the plan of the last one, and then its placements are not scored again. 0 disables
+	 * the table.
+	 */
+	public void setTranspositionTableSize(int entries) {
+		if (entries < 0) throw new IllegalArgumentException("Table size must not be negative, got "+entries);
+		this.evaluations = (entries == 0) ? null : new TranspositionTable<ScoredPos[]>(entries);
+	}
+
+	/**
+	 * Forgets the placement being worked towards. Call when the game is restarted 
+	 * or replaced behind the bot's back.
+	 */
+	public void reset() {
+		bestPlacement = null;
+		path = null;
+	}
+
 	protected static class ScoredPos extends PiecePos {
-		public int score, linesCleared;
-		public int cliffLeft, cliffRight, shadows, bubbles, totalHeight, adjTiles, adjWalls;
+		public int score;
+		public boolean swap;	// True if this places the piece swapped in from the hold
 		
 		public ScoredPos(int x, int y, int rotation) {
 			super(x, y, rotation);
 		}
 		
+		@Override
+		public ScoredPos copy() {
+			ScoredPos copy = new ScoredPos(x, y, rotation);
+			copy.score = score;
+			copy.swap = swap;
+			return copy;
+		}
+		
 	}
 	
 	protected static enum Move {
-		NONE, SWAP, SOFT_DROP, HARD_DROP, ROTATE, LEFT, RIGHT, RESTART;
+		NONE, SWAP, SOFT_DROP, HARD_DROP, ROTATE, ROTATE_LEFT, LEFT, RIGHT, RESTART;
+		
+		/**
+		 * Returns the move that performs a replay input
+		 */
+		static Move of(Replay.Input input) {
+			switch (input) {
+				case MOVE_LEFT: return LEFT;
+				case MOVE_RIGHT: return RIGHT;
+				case ROTATE_RIGHT: return ROTATE;
+				case ROTATE_LEFT: return ROTATE_LEFT;
+				case SOFT_DROP: return SOFT_DROP;
+				case HARD_DROP: return HARD_DROP;
+				case SWAP: return SWAP;
+				default: return NONE;
+			}
+		}
 	}
 	
 	/**
-	 * Checks the board state read by update() for a manipulatable piece.
-	 * Once found, the best position is calculated and the piece is moved
-	 * to that location.
+	 * Checks the game for a manipulatable piece. Once found, the best
+	 * position is calculated and the piece is moved to that location
+	 * along the shortest path of inputs. Only the piece in play is read
+	 * from the game between plans, nothing is copied.
 	 */
 	public Move getBestMove() {
-		if (tetris.isGameOver()) return Move.RESTART;
-
-		PiecePos pos = tetris.getPlayPiecePos();
-		
-		if (bestPlacement == null) {
-			bestPlacement = getBestPlacement(tetris.getPlayPiece(), pos);
-			
-			Piece holdPiece = tetris.getHoldPiece();
-			if (holdPiece == null && tetris.canSwap()) holdPiece = tetris.getBankPiece(0);
-			ScoredPos scoredHoldPos = getBestPlacement(holdPiece, PiecePos.getStartPosition(tetris));
-			
-			if (scoredHoldPos.score > bestPlacement.score && tetris.canSwap()) {
-				bestPlacement = scoredHoldPos;
-				return Move.SWAP;
-			}
+		if (tetris.isGameOver()) {
+			reset();
+			return Move.RESTART;
 		}
 		
-//		ScoredPos p = bestPlacement;
-//		System.out.print("Recommended "+p.x+","+p.y+":"+p.rotation+" with score "+p.score);
-//		System.out.print(", cliffLeft="+p.cliffLeft+", cliffRight="+p.cliffRight);
-//		System.out.print(", shadows="+p.shadows+", bubbles="+p.bubbles+", totalHeight="+p.totalHeight);
-//		System.out.print(", adjTiles="+p.adjTiles+", adjWalls="+p.adjWalls);
-//		System.out.println();
+		// A piece locked by gravity before the plan was finished starts a new plan
+		if (bestPlacement != null && tetris.getPiecesPlaced() != plannedPiecesPlaced) bestPlacement = null;
 		
-		if (pos.rotation != bestPlacement.rotation) {
-			return Move.ROTATE;
+		if (bestPlacement == null) {
+			plan();
+			if (bestPlacement.swap) return Move.SWAP;
 		}
 		
-		if (pos.x < bestPlacement.x) {
-			return Move.RIGHT;
+		Piece piece = tetris.getPlayPiece();
+		int pos = tetris.getPlayPiecePosPacked();
+		
+		// Find the path again if the piece is not where the path expects it, after a swap
+		// or a gravity tick
+		if (path == null || pathPositions[pathStep] != pos) {
+			if (!findPath(piece, pos)) {
+				// Gravity took the piece past the plan, plan again from here. The new plan
+				// may place the held piece, which has to be swapped in before its path is found
+				plan();
+				if (bestPlacement.swap && state.canSwap) return Move.SWAP;
+				if (!findPath(state.playPiece, state.playPos)) {
+					bestPlacement = null;
+					return Move.HARD_DROP;
+				}
+			}
 		}
 		
-		if (pos.x > bestPlacement.x) {
-			return Move.LEFT;
+		Replay.Input input = path[pathStep++];
+		if (input == Replay.Input.HARD_DROP) {
+			bestPlacement = null;
+			path = null;
+		}
+		return Move.of(input);
+	}
+	
+	/**
+	 * Reads the game and searches for the best placement
+	 */
+	private void plan() {
+		if (board == null || board.getWidth() != tetris.getBoardWidth() || board.getHeight() != tetris.getBoardHeight()) {
+			board = new BotBoard(tetris.getBoardWidth(), tetris.getBoardHeight());
+			if (evaluations != null) evaluations.clear();
 		}
+		tetris.read(readState);
+		if (evaluations != null) evaluations.nextGeneration();
+		
+		bestPlacement = search(state, board);
+		plannedPiecesPlaced = state.piecesPlaced;
+		path = null;
+	}
 
-		bestPlacement = null;
-		return Move.HARD_DROP;
+	
+	/**
+	 * Finds the shortest path of inputs that takes the piece from its packed position
+	 * to the best placement
+	 * @return false if the best placement cannot be reached
+	 */
+	private boolean findPath(Piece piece, int pos) {
+		PlacementGenerator generator = generator(board);
+		generator.generate(board, piece, pos);
+		int i = generator.indexOf(bestPlacement.pack());
+		if (i < 0) return false;
+		
+		path = generator.getPath(i);
+		pathPositions = generator.getPathPositions(i);
+		pathStep = 0;
+		return true;
+	}
+	
+	/**
+	 * Returns the generator of the calling thread, for boards the size of the given one
+	 */
+	private PlacementGenerator generator(BotBoard board) {
+		PlacementGenerator generator = generators.get();
+		if (generator == null || generator.getWidth() != board.getWidth() || generator.getHeight() != board.getHeight()) {
+			generator = new PlacementGenerator(board.getWidth(), board.getHeight());
+			generators.set(generator);
+		}
+		return generator;
 	}
 
 	public void play() {
@@ -106,6 +275,7 @@ public class TetrisBot {
 			case LEFT: tetris.moveLeft(); return;
 			case RIGHT: tetris.moveRight(); return;
 			case ROTATE: tetris.rotateRight(); return;
+			case ROTATE_LEFT: tetris.rotateLeft(); return;
 			case RESTART: tetris.restart();	return;
 			case NONE:
 			default: return;
@@ -113,288 +283,356 @@ public class TetrisBot {
 	}
 	
 	/**
-	 * Attempts to check and score each possible position for playing the given piece
-	 * on the given board. This is done by scoring each possible rotation and position 
-	 * of the given piece.
-	 * @param piece to be scored
+	 * Decides on the placement of the current piece and plays all of its inputs in a
+	 * single call on the game, see ITetris.playPlacement(). Meant for headless games,
+	 * where nothing happens between the inputs of a piece.
 	 */
-	private ScoredPos getBestPlacement(Piece piece, PiecePos currentPos) {
-		ScoredPos bestPos = new ScoredPos(0, 0, 0);
-		bestPos.score = Integer.MIN_VALUE;
-		if (piece == null) return bestPos;
+	public void playPiece() {
+		if (tetris.isGameOver()) {
+			reset();
+			tetris.restart();
+			return;
+		}
 		
-		for (int r = 0; r < 4; r++) {
-			for (int x = 0; x < tetris.getBoardWidth(); x++) {
-				if (x + piece.getLeftOffset(r) < 0) continue;
-				if (x + piece.getRightOffset(r) > tetris.getBoardWidth()-1) continue;
-				
-				PiecePos droppedPos = dropPiece(tetris, piece, new PiecePos(x, currentPos.y, r));
-				if (droppedPos == null) continue;
-				
-				// Check board score
-				ScoredPos boardScorePos = calculateBoardScore(tetris, piece, droppedPos);					
-				if (boardScorePos.score > bestPos.score) bestPos = boardScorePos;
+		plan();
+		boolean placed = tetris.playPlacement(bestPlacement.swap, bestPlacement.pack());
+		reset();
+		if (!placed) tetris.hardDrop();
+	}
+	
+	/**
+	 * What the search starts from besides the board, read from the game in one go, see
+	 * ITetris.read(). Reused between decisions.
+	 */
+	private static class GameState {
+		Piece playPiece, hold;
+		int playPos;
+		boolean canSwap;
+		Piece[] bank = new Piece[0];
+		int piecesPlaced, actionCombo, lineCombo;
+		
+		void read(ITetris tetris, BotBoard board) {
+			board.copyFrom(tetris);
+			playPiece = tetris.getPlayPiece();
+			playPos = tetris.getPlayPiecePosPacked();
+			hold = tetris.hasHold() ? tetris.getHoldPiece() : null;
+			canSwap = tetris.canSwap();
+			if (bank.length != tetris.getNumBanks()) bank = new Piece[tetris.getNumBanks()];
+			for (int i = 0; i < bank.length; i++) {
+				bank[i] = tetris.getBankPiece(i);
 			}
+			piecesPlaced = tetris.getPiecesPlaced();
+			actionCombo = tetris.getActionCombo();
+			lineCombo = tetris.getLineCombo();
 		}
-
-		return bestPos;
 	}
-
+	
 	/**
-	 * Takes a scoring board integer array using 2's to represent the falling piece
-	 * and 1'2 and 3's to represent other blocks and the walls, respectively.
-	 * This method will drop the falling piece downward until it collides with a
-	 * solid piece. Directly modifies the given array.
-	 * @param scoringboard - integer array representing the board state with the
-	 * piece to be dropped
+	 * A board reached by the search, with the pieces that are left to play on it
 	 */
-	private static PiecePos dropPiece(ITetris tetris, Piece piece, PiecePos pos) {
-		if (!canPieceStay(tetris, piece, pos)) return null;
-		
-		PiecePos dropped = pos.copy();
-		do {
-			dropped.down();
-		} while (canPieceStay(tetris, piece, dropped));		
-		dropped.up();
-		
-		return dropped;
+	private static class SearchNode {
+		BotBoard board;		// Null until the node is kept for the next piece
+		SearchNode parent;
+		Piece placedPiece;	// The piece placed on the parent's board to get here
+		ScoredPos placed;
+		
+		Piece current, hold;
+		int next;			// Bank index of the piece after the current one
+		long score;			// Sum of the placement scores on the way here
+		ScoredPos first;	// Placement of the first piece of the sequence
 	}
 	
-	private static boolean canPieceStay(ITetris tetris, Piece piece, PiecePos pos) {
-		boolean[][] pieceSolidity = piece.getRotation(pos.rotation);
-		
-		int left = pos.x + piece.getLeftOffset(pos.rotation);
-		if (left < 0) return false;
-		
-		int right = pos.x + piece.getRightOffset(pos.rotation);
-		if (right > tetris.getBoardWidth()-1) return false;
-		
-		int top = pos.y + piece.getTopOffset(pos.rotation);
-		int bottom = pos.y + piece.getBottomOffset(pos.rotation);
-		if (bottom > tetris.getBoardHeight()-1) return false;
-		
-		for (int x = left; x <= right; x++) {
-			int pieceX = x - left;
-			for (int y = (int) Math.max(top, 0); y <= bottom; y++) {
-				int pieceY = y - top;
-				if (!pieceSolidity[pieceX][pieceY]) continue;
-				if (tetris.isTileLocked(x, y) && tetris.getTile(x, y) != Color.NONE) return false;
-			}
-		}
-		
-		return true;
-	}
-
 	/**
-	 * Scores the placement of a piece, represented by twos in an integer array
-	 * on a board with old pieces represented by ones and walls represented by 
-	 * threes. The scoring is based on many tunable factors.
-	 * @param scoringboard - integer array representing the state of the piece
-	 * placement to be graded.
-	 * @return int array containing {score, rowsCleared} for use in determining combos
-	 * and grading decisions
+	 * Finds the best placement of the current piece or the piece in the hold. Every
+	 * placement of the current and hold piece is scored; with a search depth above 1
+	 * the best beamWidth boards are kept and the search goes on with the next piece,
+	 * until searchDepth pieces are placed. Sequences are ranked by the sum of their
+	 * placement scores. The combos of the real game are used at every depth.
+	 * @param board - copy of the locked tiles of the state
+	 * @return the first placement of the best sequence
 	 */
-	private ScoredPos calculateBoardScore(ITetris board, Piece piece, PiecePos pos) {
-		
-		// Note: more scoring heuristics exist in the getBestPlacement method including:
-		//	 subtracting 100 points for putting pieces in the first row when not breaking a tetris
-		//	 subtracting 400 points for using a line piece when no more line pieces are in the bank
-
-		int scoreAdjTiles = this.scoreAdjTiles;
-		int scoreAdjWalls = this.scoreAdjWalls;
-		int scoreHeight = this.scoreHeight;
-		int scoreShadow = this.scoreShadow;
-		int scoreBubble = this.scoreBubble;
-		int scoreRowClear = this.scoreRowClear;
-		int scoreTetris = this.scoreTetris;
-		int scorePerfect = this.scorePerfect;
-		int scoreCliffs = this.scoreCliffs;
-		
-		int score = 0;		
-		scoreRowClear -= 100 * board.getActionCombo();
+	private ScoredPos search(GameState state, BotBoard board) {
+		int depth = Math.max(1, Math.min(searchDepth, state.bank.length));
+		int playPos = state.playPos;
+		int spawnPos = PiecePos.getStartPositionPacked(tetris);
+		
+		if (beamBoards == null || beamBoards.length != beamWidth || beamBoards[0].getWidth() != board.getWidth() || beamBoards[0].getHeight() != board.getHeight()) {
+			beamBoards = new BotBoard[beamWidth];
+			nextBeamBoards = new BotBoard[beamWidth];
+			for (int i = 0; i < beamWidth; i++) {
+				beamBoards[i] = new BotBoard(board.getWidth(), board.getHeight());
+				nextBeamBoards[i] = new BotBoard(board.getWidth(), board.getHeight());
+			}
+		}
 		
-		int bubbles = 0;
-		int highestFill = 0;
-		boolean tetrisPossible = true;
-		int[] highestTile = new int[board.getBoardWidth()];
-		boolean[] rowCleared = new boolean[board.getBoardHeight()];
-		int rowsCleared = 0;
-		int lowestPieceHeight = board.getBoardHeight();
-		int totalPieceHeight = 0;
-		int adjTiles = 0;
-		int adjWalls = 0;
+		SearchNode root = new SearchNode();
+		root.board = board;
+		root.current = state.playPiece;
+		root.hold = state.hold;
 		
-		for (int j = 0; j < board.getBoardHeight(); j++) {
-			int numFilled = 0;			
-			for (int i = 0; i < board.getBoardWidth(); i++) {
-				int tileHeight = board.getBoardHeight() - j;
-				
-				boolean isPiece = isPiece(piece, pos, i, j);
+		SearchNode[] beam = { root };
+		int beamSize = 1;
+		for (int ply = 0; ply < depth; ply++) {
+			Expansion[] expansions = new Expansion[2*beamSize];
+			int numExpansions = 0;
+			
+			for (int n = 0; n < beamSize; n++) {
+				SearchNode node = beam[n];
+				boolean lineSoon = isSoon(state, node.hold, node.next, evaluator.getLineSoonPieces(), Piece.I);
 				
-				Color color = board.getTile(i, j);
-				boolean isTile = (board.isTileLocked(i, j) && color != Color.NONE && color != Color.GRAY && color != Color.GHOST);
+				// Place the current piece
+				expansions[numExpansions++] = new Expansion(node, node.current, (ply == 0) ? playPos : spawnPos, false, 
+						bankPiece(state, node.next), node.hold, node.next+1, lineSoon);
 				
-				if (isPiece || isTile) {
-					numFilled++;
-					highestTile[i] = Math.max(highestTile[i], tileHeight);
-				} else if (tileHeight < highestTile[i]) {
-					bubbles++;
+				// Or swap it with the hold, which is empty until the first swap
+				if (ply == 0 && !state.canSwap) continue;
+				if (node.hold != null) {
+					expansions[numExpansions++] = new Expansion(node, node.hold, spawnPos, true, 
+							bankPiece(state, node.next), node.current, node.next+1, lineSoon);
+				} else {
+					expansions[numExpansions++] = new Expansion(node, bankPiece(state, node.next), spawnPos, true, 
+							bankPiece(state, node.next+1), node.current, node.next+2, lineSoon);
 				}
-				
-				if (!isPiece) continue;
-				
-				lowestPieceHeight = Math.min(lowestPieceHeight, tileHeight);
-				totalPieceHeight += tileHeight;
-				
-				// Add points for adjacent tiles
-				if (i < board.getBoardWidth()-1 && board.isTileLocked(i+1, j)) adjTiles++;
-				if (i > 0 && board.isTileLocked(i-1, j)) adjTiles++;
-				if (j < board.getBoardHeight()-1 && board.isTileLocked(i, j+1)) adjTiles++;
-				if (j > 0 && board.isTileLocked(i, j-1)) adjTiles++;
-
-				// Add points for adjacent walls
-				if (j == 0) adjWalls++;
-				if (i == board.getBoardWidth()-1) adjWalls++;
-				if (j == board.getBoardHeight()-1) adjWalls++;
 			}
-			if (numFilled == board.getBoardHeight()) {
-				rowCleared[j] = true;
-				rowsCleared++;
+			
+			SearchNode[] kept = new SearchNode[beamWidth];
+			int keptSize = 0;
+			if (pool != null && numExpansions > 1) {
+				// Each expansion keeps its own best children, merging them in the sequential
+				// order keeps exactly the children the sequential search keeps
+				pool.invoke(new ExpansionRange(state, ply, expansions, 0, numExpansions));
+				for (int e = 0; e < numExpansions; e++) {
+					Expansion expansion = expansions[e];
+					for (int c = 0; c < expansion.keptSize; c++) {
+						keptSize = keep(kept, keptSize, expansion.kept[c]);
+					}
+				}
+			} else {
+				for (int e = 0; e < numExpansions; e++) {
+					keptSize = expand(state, ply, expansions[e], kept, keptSize);
+				}
 			}
-		}
-		
-		for (int i = 0; i < board.getBoardWidth(); i++) {
-			if (highestTile[i] < 4 && i > 0) {
-				tetrisPossible = false;
+			if (keptSize == 0) break;
+			
+			// Place the piece for real on the boards that are searched further
+			if (ply < depth-1) {
+				for (int n = 0; n < keptSize; n++) {
+					SearchNode node = kept[n];
+					node.board = nextBeamBoards[n];
+					node.board.copyFrom(node.parent.board);
+					node.board.place(node.placedPiece, node.placed.x, node.placed.y, node.placed.rotation);
+				}
+				BotBoard[] boards = beamBoards;
+				beamBoards = nextBeamBoards;
+				nextBeamBoards = boards;
 			}
-			highestFill = Math.max(highestFill, highestTile[i]);
+			beam = kept;
+			beamSize = keptSize;
 		}
 		
-		int borderLeft = (tetrisPossible ? 0 : 1);
-		{
-			int i = borderLeft;
-			for (int j = 0; j < board.getBoardHeight(); j++) {
-				boolean isPiece = isPiece(piece, pos, i, j);
-				if (!isPiece) continue;
-				
-				// Adjacent to movable wall (tetris combo enforcer)
-				adjWalls++;
-			}
+		if (beam[0] == root) {
+			ScoredPos none = new ScoredPos(0, 0, 0);
+			none.score = Integer.MIN_VALUE;
+			return none;
 		}
-		
-		int top = pos.y + piece.getTopOffset(pos.rotation);
-		int bottom = pos.y + piece.getBottomOffset(pos.rotation);
-		int left = pos.x + piece.getLeftOffset(pos.rotation);
-		int right = pos.x + piece.getRightOffset(pos.rotation);
-		
-		// Discourage filling the left column before a tetris is available
-		if (!tetrisPossible && left < 1) score -= 10000;
-		
-		// Bubble popper case
-		if (bubbles > 10) {
-			scoreShadow = -60000;
-			scoreRowClear = 6000;
+		return beam[0].first;
+	}
+	
+	/**
+	 * One piece to place on one node's board, with the pieces left afterwards
+	 */
+	private static class Expansion {
+		final SearchNode node;
+		final Piece piece;
+		final int startPos;		// Packed position the piece starts at
+		final boolean swap;		// True if the piece is swapped in from the hold
+		final Piece current, hold;
+		final int next;
+		final boolean lineSoon;
+		
+		SearchNode[] kept;		// Best children of this expansion alone, when searching in parallel
+		int keptSize;
+		
+		Expansion(SearchNode node, Piece piece, int startPos, boolean swap, Piece current, Piece hold, int next, boolean lineSoon) {
+			this.node = node;
+			this.piece = piece;
+			this.startPos = startPos;
+			this.swap = swap;
+			this.current = current;
+			this.hold = hold;
+			this.next = next;
+			this.lineSoon = lineSoon;
+		}
+	}
+	
+	/**
+	 * Expands the expansions start (inclusive) to end (exclusive), splitting the range
+	 * in halves so idle threads can steal work. Scoring only reads the parent boards,
+	 * so the threads share them without copying.
+	 */
+	private class ExpansionRange extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final GameState state;
+		private final Expansion[] expansions;
+		private final int ply, start, end;
+		
+		ExpansionRange(GameState state, int ply, Expansion[] expansions, int start, int end) {
+			this.state = state;
+			this.ply = ply;
+			this.expansions = expansions;
+			this.start = start;
+			this.end = end;
 		}
 		
-		// Combo case
-		if (board.getLineCombo() > 0) {
-			int combo = board.getLineCombo();
-			int actionCombo = board.getActionCombo();
+		@Override
+		protected void compute() {
+			if (end - start > 1) {
+				int mid = (start + end) >>> 1;
+				invokeAll(new ExpansionRange(state, ply, expansions, start, mid), 
+						new ExpansionRange(state, ply, expansions, mid, end));
+				return;
+			}
 			
-			scoreRowClear = 400*combo - 2400*actionCombo;
-			scorePerfect = scorePerfect - 1200*actionCombo;
+			for (int i = start; i < end; i++) {
+				Expansion expansion = expansions[i];
+				expansion.kept = new SearchNode[beamWidth];
+				expansion.keptSize = expand(state, ply, expansion, expansion.kept, 0);
+			}
 		}
-		
-		// Line breaking case (critical height)
-		if (highestFill >= 12 && !isSoon(5, Piece.I)) {
-			scoreHeight = -5000;
-			scoreRowClear = 6000;
-			scoreShadow = -800;
-			scoreAdjWalls = 0;
-			scoreAdjTiles = 10;
-			scorePerfect = 100000;
+	}
+	
+	/**
+	 * Keeps the best children of an expansion in kept, scoring the placements of the
+	 * expansion's piece unless the transposition table has them
+	 * @return the new number of kept children
+	 */
+	private int expand(GameState state, int ply, Expansion expansion, SearchNode[] kept, int keptSize) {
+		if (expansion.piece == null) return keptSize;
+		SearchNode node = expansion.node;
+		
+		ScoredPos[] placements;
+		TranspositionTable<ScoredPos[]> evaluations = this.evaluations;
+		if (evaluations != null) {
+			long key = node.board.getHash() ^ Zobrist.key(KEY_PIECE, expansion.piece.ordinal()) 
+					^ Zobrist.key(KEY_START, expansion.startPos) ^ Zobrist.key(KEY_PLY, Math.min(ply, 1)) ^ Zobrist.key(KEY_LINE_SOON, expansion.lineSoon ? 1 : 0)
+					^ Zobrist.key(KEY_ACTION_COMBO, state.actionCombo) ^ Zobrist.key(KEY_LINE_COMBO, state.lineCombo);
+			placements = evaluations.get(key);
+			if (placements == null) {
+				placements = scorePlacements(state, ply, expansion);
+				evaluations.put(key, placements);
+			}
+		} else {
+			placements = scorePlacements(state, ply, expansion);
 		}
-
-		score += adjTiles * scoreAdjTiles;
-		score += adjWalls * scoreAdjWalls;
 		
-		if (rowsCleared == 1) score += scoreRowClear/2;
-		else if (rowsCleared > 1 && rowsCleared < 4) score += rowsCleared*scoreRowClear;
-		else if (rowsCleared == 4) {
-			score += scoreTetris;
+		for (ScoredPos placed : placements) {
+			long score = node.score + placed.score;
+			if (keptSize == kept.length && score <= kept[keptSize-1].score) continue;
+			
+			SearchNode child = new SearchNode();
+			child.parent = node;
+			child.placedPiece = expansion.piece;
+			child.placed = placed;
+			child.current = expansion.current;
+			child.hold = expansion.hold;
+			child.next = expansion.next;
+			child.score = score;
+			if (ply == 0) {
+				child.first = placed.copy();
+				child.first.swap = expansion.swap;
+			} else {
+				child.first = node.first;
+			}
+			keptSize = keep(kept, keptSize, child);
 		}
 		
-		// Award lots of points for destroying the entire block with row clears
-		boolean noneLeft = true;
-		if (top < 0) top = 0;
-		for (int j = top; j <= bottom; j++) {
-			if (!rowCleared[j]) {
-				noneLeft = false;
-				break;
+		return keptSize;
+	}
+	
+	/**
+	 * Scores each possible position of the expansion's piece on its node's board. The
+	 * piece played now, at ply 0, can go everywhere it can reach from its position,
+	 * under overhangs too. Later pieces are only dropped straight down after turning
+	 * and moving at their start row, which is much cheaper to search. The result only
+	 * depends on the board, the piece, where it starts, the kind of search, whether a
+	 * line piece is soon and the combos of the game, which make up the key of the
+	 * transposition table. It is shared through the table, so it must not be changed.
+	 * @return the scored placements, fewest inputs first at ply 0, else in order of
+	 * rotation then column
+	 */
+	private ScoredPos[] scorePlacements(GameState state, int ply, Expansion expansion) {
+		Piece piece = expansion.piece;
+		BotBoard board = expansion.node.board;
+		BoardEvaluator.Context context = new BoardEvaluator.Context(state.actionCombo, state.lineCombo, expansion.lineSoon);
+		
+		if (ply == 0) {
+			PlacementGenerator generator = generator(board);
+			int count = generator.generate(board, piece, expansion.startPos);
+			ScoredPos[] placements = new ScoredPos[count];
+			for (int i = 0; i < count; i++) {
+				placements[i] = score(board, piece, PiecePos.unpack(generator.getPlacement(i)), context);
 			}
+			return placements;
 		}
-		if (noneLeft) score += scorePerfect;
-		
-		// Subtract points for not saving line pieces
-		if (piece == Piece.I && !isSoon(5, Piece.I)) score -= 300;
 		
-		// Subtract points for 'cliffs'
-		int cliffLeft = 0, cliffRight = 0;
-		if (left > borderLeft) cliffLeft = highestTile[left] - highestTile[left-1];
-		cliffLeft = Math.max(cliffLeft-1, -1);
-		if (right < board.getBoardWidth()-1) cliffRight = highestTile[right] - highestTile[right+1];
-		cliffRight = Math.max(cliffRight-1, -1);
-		score += cliffLeft*scoreCliffs;
-		score += cliffRight*scoreCliffs;
-		
-		// Subtract points for height
-		score += totalPieceHeight*scoreHeight;
-		
-		// Subtract points for shadows
-		int shadows = 0;
-		bubbles = 0;
-		for (int i = left; i <= right; i++) {
-			for (int j = top; j <= bottom; j++) {
-				if (!isPiece(piece, pos, i, j)) continue;
-				boolean solidTileFound = false;
-				for (int s = j+1; s < board.getBoardHeight(); s++) {
-					if (isPiece(piece, pos, i, s)) break;
-					if (board.isTileLocked(i, s)) {
-						solidTileFound = true;
-					} else {
-						if (!solidTileFound) shadows++;
-						else bubbles++;
-					}
-				}
+		int startY = PiecePos.unpackY(expansion.startPos);
+		ScoredPos[] placements = new ScoredPos[4*board.getWidth()];
+		int count = 0;
+		for (int r = 0; r < 4; r++) {
+			// Other rotations with the same footprint would land on the same tiles
+			if (piece.getCanonicalRotation(r) != r) continue;
+			
+			for (int x = 0; x < board.getWidth(); x++) {
+				if (x + piece.getLeftOffset(r) < 0) continue;
+				if (x + piece.getRightOffset(r) > board.getWidth()-1) continue;
+				
+				PiecePos droppedPos = dropPiece(board, piece, new PiecePos(x, startY, r));
+				if (droppedPos == null) continue;
+				
+				placements[count++] = score(board, piece, droppedPos, context);
 			}
 		}
-		score += shadows * scoreShadow;
-		score += bubbles * scoreBubble;
 		
-		ScoredPos result = new ScoredPos(pos.x, pos.y, pos.rotation);
-		result.score = score;
-		result.linesCleared = rowsCleared;
-		result.totalHeight = totalPieceHeight;
-		result.cliffLeft = cliffLeft;
-		result.cliffRight = cliffRight;
-		result.shadows = shadows;
-		result.bubbles = bubbles;
-		result.adjTiles = adjTiles;
-		result.adjWalls = adjWalls;
+		return Arrays.copyOf(placements, count);
+	}
+	
+	private ScoredPos score(BotBoard board, Piece piece, PiecePos pos, BoardEvaluator.Context context) {
+		ScoredPos scored = new ScoredPos(pos.x, pos.y, pos.rotation);
+		scored.score = evaluator.evaluate(board, piece, pos.x, pos.y, pos.rotation, context);
+		return scored;
+	}
+	
+	/**
+	 * Inserts a child into kept, which stays sorted by score. Children already kept win
+	 * ties, and the lowest child falls off when kept is full.
+	 * @return the new number of kept children
+	 */
+	private static int keep(SearchNode[] kept, int keptSize, SearchNode child) {
+		if (keptSize == kept.length && child.score <= kept[keptSize-1].score) return keptSize;
 		
-		return result;
+		int i = Math.min(keptSize, kept.length-1);
+		while (i > 0 && kept[i-1].score < child.score) {
+			kept[i] = kept[i-1];
+			i--;
+		}
+		kept[i] = child;
+		return (keptSize < kept.length) ? keptSize+1 : keptSize;
+	}
+	
+	private static Piece bankPiece(GameState state, int i) {
+		return (i < state.bank.length) ? state.bank[i] : null;
 	}
 
-	private static boolean isPiece(Piece piece, PiecePos pos, int x, int y) {
-		int left = pos.x + piece.getLeftOffset(pos.rotation);
-		int right = pos.x + piece.getRightOffset(pos.rotation);
-		int top = pos.y + piece.getTopOffset(pos.rotation);
-		int bottom = pos.y + piece.getBottomOffset(pos.rotation);
-		if (x >= left && x <= right && y >= top && y <= bottom) {
-			boolean[][] pieceSolidity = piece.getRotation(pos.rotation);
-			if (pieceSolidity[x - left][y - top]) return true;
-		}
-		return false;
+	/**
+	 * Drops the piece straight down from the given position until it would
+	 * collide with a locked tile or the floor.
+	 * @return the last position the piece fits at, or null if it does not fit
+	 * at the given position
+	 */
+	private static PiecePos dropPiece(BotBoard board, Piece piece, PiecePos pos) {
+		if (!board.fits(piece, pos.x, pos.y, pos.rotation)) return null;
+		return new PiecePos(pos.x, board.dropY(piece, pos.x, pos.y, pos.rotation), pos.rotation);
 	}
 
 	/**
@@ -409,4 +647,15 @@ public class TetrisBot {
 		return false;
 	}
 	
+	/**
+	 * Checks the hold and firstN bank locations starting at bank index next for a piece
+	 */
+	private static boolean isSoon(GameState state, Piece hold, int next, int firstN, Piece piece) {
+		if (hold == piece) return true;
+		for (int b = next; b < state.bank.length && b < next + firstN; b++) {
+			if (state.bank[b] == piece) return true;
+		}
+		return false;
+	}
+	
 }
@@ -119,28 +119,29 @@ public class TetrisGraphics {
 	}
 
 	public void draw(Graphics2D g) {
+		TetrisSnapshot state = tetris.snapshot();
 		
 		g.setColor(Color.BLACK);
 		g.fillRect(0, 0, size.width, size.height);
 		
 		// Draw hold
-		if (tetris.hasHold()) {
-			hold.draw(g, tetris.getHoldPiece());
+		if (state.hasHold()) {
+			hold.draw(g, state.getHoldPiece());
 		}
 		
 		// Draw banks
-		for (int i = 0; i < tetris.getNumBanks(); i++) {
-			banks.get(i).draw(g, tetris.getBankPiece(i));
+		for (int i = 0; i < state.getNumBanks(); i++) {
+			banks.get(i).draw(g, state.getBankPiece(i));
 		}
 		
 		// Draw the board
 		g.setColor(java.awt.Color.white);
-		g.drawRect(boardPos.x-1, boardPos.y-1, tetris.getBoardWidth()*18+2, tetris.getBoardHeight()*18+2);
+		g.drawRect(boardPos.x-1, boardPos.y-1, state.getBoardWidth()*18+2, state.getBoardHeight()*18+2);
 		
 		// Draw placed pieces
-		for (int x = 0; x < tetris.getBoardWidth(); x++) {
-			for (int y = 0; y < tetris.getBoardHeight(); y++) {
-				ITetris.Color boardColor = tetris.getTile(x, y);
+		for (int x = 0; x < state.getBoardWidth(); x++) {
+			for (int y = 0; y < state.getBoardHeight(); y++) {
+				ITetris.Color boardColor = state.getTile(x, y);
 				
 				if (boardColor == ITetris.Color.NONE || boardColor == ITetris.Color.GRAY || boardColor == ITetris.Color.GHOST) {					
 					if ((x + y) % 2 == 0) {
@@ -172,16 +173,16 @@ public class TetrisGraphics {
 		g.setColor(java.awt.Color.white);
 		g.setFont(new Font("Cooper Black", Font.PLAIN, 18));
 		g.drawString("Score", boardPos.x-62, boardPos.y+100);
-		g.drawString(String.valueOf(tetris.getScore()), boardPos.x-56, boardPos.y+120);
+		g.drawString(String.valueOf(state.getScore()), boardPos.x-56, boardPos.y+120);
 		
 		// Display Lines Cleared
 		g.drawString("Lines", boardPos.x-62, boardPos.y+150);
-		g.drawString(String.valueOf(tetris.getLinesCleared()), boardPos.x-56, boardPos.y+170);
+		g.drawString(String.valueOf(state.getLinesCleared()), boardPos.x-56, boardPos.y+170);
 		
 		// Display Combo
-		if (tetris.getLineCombo() > 0) {
+		if (state.getLineCombo() > 0) {
 			g.setColor(java.awt.Color.yellow);
-			g.drawString("x"+tetris.getLineCombo(), boardPos.x-56, boardPos.y+200);
+			g.drawString("x"+state.getLineCombo(), boardPos.x-56, boardPos.y+200);
 		}
 
 		// Display Scoring Information (Fading messages like "Tetris!")
@@ -193,10 +194,10 @@ public class TetrisGraphics {
 //		}
 
 		// Display game over
-		if (tetris.isGameOver()) {
+		if (state.isGameOver()) {
 			g.setColor(java.awt.Color.white);
 			g.setFont(new Font("Cooper Black", Font.PLAIN, 24));
-			g.drawString("Game Over", boardPos.x + (tetris.getBoardWidth()*18+2)/2 - 70, boardPos.y + (tetris.getBoardHeight()*18+2)/2 - 10);
+			g.drawString("Game Over", boardPos.x + (state.getBoardWidth()*18+2)/2 - 70, boardPos.y + (state.getBoardHeight()*18+2)/2 - 10);
 		}
 		
 	}
@@ -1,100 +1,141 @@
 package tetris;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.Arrays;
+import java.util.SplittableRandom;
 
 public class TetrisImpl implements ITetris {
 	
+	protected final TetrisRules rules;
 	protected int width, height;
-	protected ITetris.Color[][] board;
+	protected StatsBoard occupancy;
+	protected final ITetris.BoardStats boardStats = new BoardStatsView();
+	protected ITetris.Color[][] board;	// [y][x], rows are moved by reference when lines clear
 	protected ITetris.Piece playPiece = null;
 	protected ITetris.Piece holdPiece = null;
 	
-	protected PiecePos playPiecePos;
+	protected int playPiecePos = PiecePos.PACKED_NONE;
+	
+	protected static final int NO_GHOST = Integer.MIN_VALUE;
+	protected int ghostY = NO_GHOST;
+	
+	protected volatile TetrisSnapshot snapshot = null;
+	protected ReplayWriter replayWriter = null;
 	
 	protected boolean gameOver;
 	protected int score;
 	protected int linesCleared;
+	protected int piecesPlaced;
 	protected int tetrisCombo;
 	protected int lineCombo;
 	protected boolean swapUsed;
 	
-	protected int numBanks = 5;
-	protected ITetris.Piece[] banks;
+	protected int numBanks;
+	protected PieceQueue banks;	// The preview pieces followed by the rest of the bag
 	
-	protected List<ITetris.Piece> bag = new ArrayList<ITetris.Piece>();
+	/**
+	 * Returned by place() if the piece could not be placed
+	 */
+	public static final int NO_UNDO = -1;
+	
+	protected Placement[] placements = new Placement[0];	// Undo records of place(), reused
+	protected int numPlacements = 0;
+	
+	protected PlacementGenerator generator;	// Finds the inputs for playPlacement(), created on first use
 	
 	public TetrisImpl() {
-		this.width = 10;
-		this.height = 20;
-		
-		this.bag = new ArrayList<ITetris.Piece>();
-		this.board = new ITetris.Color[width][height];
-		this.banks = new ITetris.Piece[numBanks];
+		this(new PieceRandomizer.SevenBag(new SplittableRandom()));
+	}
+	
+	/**
+	 * Creates a game whose piece sequence is determined by the seed
+	 */
+	public TetrisImpl(long seed) {
+		this(new PieceRandomizer.SevenBag(seed));
+	}
+	
+	/**
+	 * Creates a game that draws its pieces from the given randomizer
+	 */
+	public TetrisImpl(PieceRandomizer randomizer) {
+		this(TetrisRules.STANDARD, randomizer);
+	}
+	
+	/**
+	 * Creates a game that draws its pieces from the given randomizer and shows
+	 * numBanks upcoming pieces. A deeper preview costs nothing extra per piece.
+	 */
+	public TetrisImpl(PieceRandomizer randomizer, int numBanks) {
+		this(TetrisRules.STANDARD.withNumBanks(numBanks), randomizer);
+	}
+	
+	/**
+	 * Creates a game with the given board size and preview whose piece sequence is determined by the seed
+	 */
+	public TetrisImpl(TetrisRules rules, long seed) {
+		this(rules, new PieceRandomizer.SevenBag(seed));
+	}
+	
+	/**
+	 * Creates a game with the given board size and preview that draws its pieces from the given randomizer
+	 */
+	public TetrisImpl(TetrisRules rules, PieceRandomizer randomizer) {
+		this.rules = rules;
+		this.numBanks = rules.getNumBanks();
+		this.width = rules.getBoardWidth();
+		this.height = rules.getBoardHeight();
+		
+		this.occupancy = new StatsBoard(width, height);
+		this.board = new ITetris.Color[height][width];
+		this.banks = new PieceQueue(randomizer, numBanks);
 
 		reset();
 	}
 
 
+	/**
+	 * Starts a new game that draws its pieces from another randomizer. Lets one
+	 * engine instance be reused for many games.
+	 */
+	public synchronized void newGame(PieceRandomizer randomizer) {
+		banks.setRandomizer(randomizer);
+		reset();
+	}
+
 	public void reset() {		
 		// Clear the board
-		for (int x = 0; x < width; x++) {
-			for (int y = 0; y < height; y++) {
-				board[x][y] = Color.NONE;
-			}
+		occupancy.clear();
+		for (int y = 0; y < height; y++) {
+			Arrays.fill(board[y], Color.NONE);
 		}
 		
 		// Clear the hold
 		holdPiece = null;
 		
 		// Reset the bank
-		bag.clear();
-		for (int i = 0; i < numBanks; i++) {
-			banks[i] = nextBagPiece();
-		}
+		banks.reset();
+		
+		// Forget the undo records
+		numPlacements = 0;
 		
 		// Reset the score
 		score = 0;
 		linesCleared = 0;
+		piecesPlaced = 0;
 		tetrisCombo = 0;
 		lineCombo = 0;
 		gameOver = false;
 		
 		// Put a piece in play
 		putNewPieceInPlay();
+		snapshot = null;
 	}
 
 	/**
-	 * Gets the next piece out of the bank, shifts the bank up, and adds a new piece to the last bank slot
+	 * Gets the next piece out of the bank. The bank refills itself from the randomizer, 
+	 * by default a 7-bag. This ensures a fair and fun play.
 	 */
 	protected Piece nextBankPiece() {
-		Piece next = banks[0]; 
-		for (int i = 0; i < numBanks-1; i++) {
-			banks[i] = banks[i+1];
-		}
-		banks[numBanks-1] = nextBagPiece();
-		return next;
-	}
-	
-	/**
-	 * Uses the bag drawing method to get a new random piece. This ensures a fair and fun play.
-	 */
-	protected Piece nextBagPiece() {
-		if (bag.isEmpty()) fillBag();
-		Piece next = bag.remove(0);
-		return next;
-	}
-	
-	/**
-	 * Adds one of each type of piece in the bag and shuffles it. Call when the bag is empty.
-	 */
-	protected void fillBag() {
-		Piece[] all = ITetris.Piece.values();
-		for (int i = 0; i < all.length; i++) {
-			bag.add(all[i]);
-		}
-		Collections.shuffle(bag);
+		return banks.poll();
 	}
 
 	/**
@@ -102,59 +143,72 @@ public class TetrisImpl implements ITetris {
 	 */
 	protected void putNewPieceInPlay() {
 		this.playPiece = nextBankPiece();
-		this.playPiecePos = PiecePos.getStartPosition(this);
+		this.playPiecePos = PiecePos.getStartPositionPacked(this);
+		this.ghostY = NO_GHOST;
 		this.swapUsed = false;
-		if (!checkCollisionAndAdjust(playPiecePos)) {
+		
+		int adjusted = adjustPosition(playPiece, playPiecePos);
+		if (adjusted == PiecePos.PACKED_NONE) {
 			gameOver = true;
+		} else {
+			playPiecePos = adjusted;
 		}
 	}
 	
 	/**
-	 * Checks if the piece is allowed on the board in its current position.
+	 * Checks if the piece is allowed on the board at a packed position.
 	 * Adjusts the X position if the piece hitting the board's left or right wall
-	 * @return true if allowed, otherwise false.
+	 * @return the adjusted packed position if allowed, otherwise PiecePos.PACKED_NONE.
 	 */
-	protected boolean checkCollisionAndAdjust(PiecePos piecePos) {
-		boolean[][] pieceSolidity = playPiece.getRotation(piecePos.rotation);
-
-		int originalX = piecePos.x;
+	protected int adjustPosition(Piece piece, int packedPos) {
+		int rotation = PiecePos.unpackRotation(packedPos);
+		int x = PiecePos.unpackX(packedPos);
+		int y = PiecePos.unpackY(packedPos);
 		
 		boolean shiftedLeft = false;
-		int left = piecePos.x + playPiece.getLeftOffset(piecePos.rotation);
+		int left = x + piece.getLeftOffset(rotation);
 		if (left < 0) {
 			int adjust = -left;
-			piecePos.x += adjust;
+			x += adjust;
 			left += adjust;
 			shiftedLeft = true;
 		} 
 		
 		boolean shiftedRight = false;
-		int right = piecePos.x + playPiece.getRightOffset(piecePos.rotation);
+		int right = x + piece.getRightOffset(rotation);
 		if (right > width-1) {
 			int adjust = right - (width-1);
-			piecePos.x -= adjust;
+			x -= adjust;
 			left -= adjust;
 			right -= adjust;
 		}
 		
 		// Too tight to turn? Board should probably be wider, but okay
-		if (shiftedLeft && shiftedRight) return false;
-		
-		int top = piecePos.y + playPiece.getTopOffset(piecePos.rotation);
-		int bottom = piecePos.y + playPiece.getBottomOffset(piecePos.rotation);
-		if (bottom > height-1) return false;
-		
-		for (int x = left; x <= right; x++) {
-			int pieceX = x - left;
-			for (int y = (int) Math.max(top, 0); y <= bottom; y++) {
-				int pieceY = y - top;
-				if (pieceSolidity[pieceX][pieceY] && board[x][y] != Color.NONE) {
-					piecePos.x = originalX;
-					return false;
-				}
-			}
+		if (shiftedLeft && shiftedRight) return PiecePos.PACKED_NONE;
+		
+		int top = y + piece.getTopOffset(rotation);
+		int bottom = y + piece.getBottomOffset(rotation);
+		if (bottom > height-1) return PiecePos.PACKED_NONE;
+		
+		for (int row = Math.max(top, 0); row <= bottom; row++) {
+			if (occupancy.collides(row, left, piece.getRowMask(rotation, row - top))) return PiecePos.PACKED_NONE;
 		}
 		
+		return PiecePos.pack(x, y, rotation);
+	}
+	
+	/**
+	 * Moves the piece in play to a new packed position if it is allowed there. Does not allocate.
+	 * @return true if the piece moved, false if the position was blocked or the same as before.
+	 */
+	protected boolean tryMove(int packedPos) {
+		int move = adjustPosition(playPiece, packedPos);
+		if (move == PiecePos.PACKED_NONE) return false;
+		if (move == playPiecePos) return false;
+		
+		playPiecePos = move;
+		ghostY = NO_GHOST;
+		snapshot = null;
 		return true;
 	}
 	
@@ -164,63 +218,57 @@ public class TetrisImpl implements ITetris {
 	 * Finally, puts a new piece into play if the settle was not a game over.
 	 */
 	protected void settleCurrentPiece() {
-		if (!checkCollisionAndAdjust(playPiecePos)) throw new RuntimeException("Settling failed because the piece would not fit!");
+		snapshot = null;
+		playPiecePos = adjustPosition(playPiece, playPiecePos);
+		if (playPiecePos == PiecePos.PACKED_NONE) throw new RuntimeException("Settling failed because the piece would not fit!");
 		
-		boolean[][] pieceSolidity = playPiece.getRotation(playPiecePos.rotation);
-		
-		int left = playPiecePos.x + playPiece.getLeftOffset(playPiecePos.rotation);
-		int right = playPiecePos.x + playPiece.getRightOffset(playPiecePos.rotation);
-		int top = playPiecePos.y + playPiece.getTopOffset(playPiecePos.rotation);
-		int bottom = playPiecePos.y + playPiece.getBottomOffset(playPiecePos.rotation);
+		int rotation = PiecePos.unpackRotation(playPiecePos);
+		int top = PiecePos.unpackY(playPiecePos) + playPiece.getTopOffset(rotation);
 		
 		if (top < 0) {
 			gameOver = true;
 			return;
 		}
 		
+		lockPiece(playPiece, playPiecePos, null);
+		putNewPieceInPlay();
+		if (replayWriter != null && !gameOver) replayWriter.pieceLocked(this);
+	}
+	
+	/**
+	 * Adds a piece to the board at a valid packed position and scores it
+	 * @param undo - record to save the cleared rows into, or null
+	 */
+	protected void lockPiece(Piece piece, int packedPos, Placement undo) {
+		int posX = PiecePos.unpackX(packedPos);
+		int posY = PiecePos.unpackY(packedPos);
+		int rotation = PiecePos.unpackRotation(packedPos);
+		
 		boolean isTSpin = false;
-		if (playPiece == Piece.T) {
+		if (piece == Piece.T) {
 			// T-Spin only valid if the piece cannot move up, left, or right
 			// However the left and right conditions are guaranteed by checkScore() finding a line clear
-			isTSpin = checkCollisionAndAdjust(playPiecePos.copy().up());
+			isTSpin = adjustPosition(piece, PiecePos.packedMove(packedPos, 0, -1)) != PiecePos.PACKED_NONE;
 		}
 		
-		for (int x = left; x <= right; x++) {
-			int pieceX = x - left;
-			for (int y = (int) Math.max(top, 0); y <= bottom; y++) {
-				int pieceY = y - top;
-				if (pieceSolidity[pieceX][pieceY]) {
-					board[x][y] = playPiece.getColor();
-				}
-			}
+		piecesPlaced++;
+		Color color = piece.getColor();
+		for (int i = 0; i < Piece.NUM_CELLS; i++) {
+			int x = posX + piece.getCellX(rotation, i);
+			int y = posY + piece.getCellY(rotation, i);
+			occupancy.fill(x, y);
+			board[y][x] = color;
 		}
 		
-		checkScore(isTSpin);
-		putNewPieceInPlay();
+		checkScore(isTSpin, undo);
 	}
 	
 	/**
 	 * Look for line breaks, tetris clears, and full board clears
+	 * @param undo - record to save the cleared rows into, or null
 	 */
-	protected void checkScore(boolean tspin) {
-		int lineClears = 0;
-		
-		for (int y = height-1; y >= 0; y--) {
-			int numFilled = 0;
-			for (int x = 0; x < width; x++) {
-				Color boardColor = board[x][y]; 
-				if (boardColor != Color.NONE && boardColor != Color.GRAY) numFilled++;
-			}
-			if (numFilled == width) {
-				lineClears++;
-				for (int y2 = y; y2 >= 1; y2--) {
-					for (int x = 0; x < width; x++) {
-						board[x][y2] = board[x][y2-1]; 
-					}
-				}
-				y++;
-			}
-		}
+	protected void checkScore(boolean tspin, Placement undo) {
+		int lineClears = clearFullRows(undo);
 		
 		linesCleared += lineClears;
 		score += lineClears * (tspin ? 2 : 1) * (tetrisCombo+1) * (lineCombo+1); 
@@ -235,6 +283,42 @@ public class TetrisImpl implements ITetris {
 	}
 
 
+	/**
+	 * Removes every full row in one pass from the bottom up. Rows that stay are moved down
+	 * by swapping row references, so the cleared rows end up at the top where they are emptied.
+	 * @param undo - record to save the index and colors of the cleared rows into, or null
+	 * @return the number of rows cleared
+	 */
+	protected int clearFullRows(Placement undo) {
+		int write = height-1;
+		for (int read = height-1; read >= 0; read--) {
+			if (occupancy.isRowFull(read)) {
+				if (undo != null) undo.saveClearedRow(read, board[read]);
+				continue;
+			}
+			if (write != read) {
+				occupancy.copyRow(read, write);
+				Color[] row = board[write];
+				board[write] = board[read];
+				board[read] = row;
+			}
+			write--;
+		}
+		
+		// Rows 0 to write now hold the cleared rows
+		for (int y = 0; y <= write; y++) {
+			occupancy.emptyRow(y);
+			Arrays.fill(board[y], Color.NONE);
+		}
+		if (write >= 0) occupancy.rowsRemoved(write+1);
+		return write+1;
+	}
+
+
+	public TetrisRules getRules() {
+		return rules;
+	}
+
 	@Override
 	public int getBoardWidth() {
 		return this.width;
@@ -248,7 +332,8 @@ public class TetrisImpl implements ITetris {
 	@Override
 	public synchronized void updateTick() {
 		if (isGameOver()) return;
-		this.softDrop();
+		if (replayWriter != null) replayWriter.tick();
+		drop();
 	}
 	
 	@Override
@@ -256,32 +341,91 @@ public class TetrisImpl implements ITetris {
 		if(x < 0 || x >= width || y < 0 || y >= height) return ITetris.Color.GRAY;
 		
 		// Current play piece tiles
-		int left = playPiecePos.x + playPiece.getLeftOffset(playPiecePos.rotation);
-		int right = playPiecePos.x + playPiece.getRightOffset(playPiecePos.rotation);
-		int top = playPiecePos.y + playPiece.getTopOffset(playPiecePos.rotation);
-		int bottom = playPiecePos.y + playPiece.getBottomOffset(playPiecePos.rotation);
-		if (x >= left && x <= right && y >= top && y <= bottom) {
-			boolean[][] pieceSolidity = playPiece.getRotation(playPiecePos.rotation);
-			if (pieceSolidity[x - left][y - top]) return playPiece.getColor();
-		}
+		int pos = playPiecePos;
+		int rotation = PiecePos.unpackRotation(pos);
+		int left = PiecePos.unpackX(pos) + playPiece.getLeftOffset(rotation);
+		int top = PiecePos.unpackY(pos) + playPiece.getTopOffset(rotation);
+		int bottom = PiecePos.unpackY(pos) + playPiece.getBottomOffset(rotation);
+		int column = x - left;
+		if (column < 0 || column >= playPiece.getWidth(rotation)) return board[y][x];
+		int bit = 1 << column;
+		if (y >= top && y <= bottom && (playPiece.getRowMask(rotation, y - top) & bit) != 0) return playPiece.getColor();
 		
 		// Ghost tiles
-		PiecePos pos = getHardDropPos(playPiecePos);
-		top = pos.y + playPiece.getTopOffset(playPiecePos.rotation);
-		bottom = pos.y + playPiece.getBottomOffset(playPiecePos.rotation);
-		if (x >= left && x <= right && y >= top && y <= bottom) {
-			boolean[][] pieceSolidity = playPiece.getRotation(playPiecePos.rotation);
-			if (pieceSolidity[x - left][y - top]) return Color.GHOST;
-		}
+		int ghostY = this.ghostY;
+		if (ghostY == NO_GHOST) ghostY = updateGhost();
+		top = ghostY + playPiece.getTopOffset(rotation);
+		bottom = ghostY + playPiece.getBottomOffset(rotation);
+		if (y >= top && y <= bottom && (playPiece.getRowMask(rotation, y - top) & bit) != 0) return Color.GHOST;
 		
 		// Everything else
-		return board[x][y];
+		return board[y][x];
+	}
+
+	/**
+	 * Computes the ghost (hard drop) row of the piece in play and caches it
+	 * until the next move, rotation, swap or lock.
+	 */
+	protected synchronized int updateGhost() {
+		if (ghostY == NO_GHOST) ghostY = PiecePos.unpackY(getHardDropPos(playPiecePos));
+		return ghostY;
+	}
+	
+	@Override
+	public Color getLockedTile(int x, int y) {
+		if(x < 0 || x >= width || y < 0 || y >= height) return ITetris.Color.GRAY;
+		return board[y][x];
 	}
 
 	@Override
 	public boolean isTileLocked(int x, int y) {
-		if(x < 0 || x >= width || y < 0 || y >= height) return true;
-		return board[x][y] != Color.NONE;
+		return occupancy.isFilled(x, y);
+	}
+	
+	@Override
+	public ITetris.BoardStats getBoardStats() {
+		return boardStats;
+	}
+	
+	/**
+	 * Read-only view of the statistics of the occupancy board, see getBoardStats().
+	 * Handing out the board itself would let callers change the game.
+	 */
+	private class BoardStatsView implements ITetris.BoardStats {
+		@Override
+		public int getColumnHeight(int x) {
+			synchronized (TetrisImpl.this) {
+				return occupancy.getColumnHeight(x);
+			}
+		}
+
+		@Override
+		public int getColumnFill(int x) {
+			synchronized (TetrisImpl.this) {
+				return occupancy.getColumnFill(x);
+			}
+		}
+
+		@Override
+		public int getRowFill(int y) {
+			synchronized (TetrisImpl.this) {
+				return occupancy.getRowFill(y);
+			}
+		}
+
+		@Override
+		public int getHoles() {
+			synchronized (TetrisImpl.this) {
+				return occupancy.getHoles();
+			}
+		}
+
+		@Override
+		public int getMaxHeight() {
+			synchronized (TetrisImpl.this) {
+				return occupancy.getMaxHeight();
+			}
+		}
 	}
 	
 	@Override
@@ -294,6 +438,7 @@ public class TetrisImpl implements ITetris {
 	
 	@Override
 	public synchronized boolean swap() {
+		record(Replay.Input.SWAP);
 		if (this.isGameOver()) return false;
 		if (!this.hasHold()) return false;
 		if (swapUsed) return false;
@@ -303,58 +448,54 @@ public class TetrisImpl implements ITetris {
 		this.playPiece = holdPiece;
 		
 		if (this.playPiece == null) this.playPiece = nextBankPiece();
-		this.playPiecePos = PiecePos.getStartPosition(this);
+		this.playPiecePos = PiecePos.getStartPositionPacked(this);
+		this.ghostY = NO_GHOST;
 		
 		swapUsed = true;
+		snapshot = null;
 		return true;
 	}
 	
 	@Override
 	public synchronized boolean rotateRight() {
+		record(Replay.Input.ROTATE_RIGHT);
 		if (this.isGameOver()) return false;
-		
-		PiecePos move = playPiecePos.copy().rotateRight();
-		
-		boolean canMove = checkCollisionAndAdjust(move);
-		if (!canMove) return false;
-		if (move.equals(playPiecePos)) return false;
-		
-		playPiecePos = move;
-		return true;
+		return tryMove(PiecePos.packedRotate(playPiecePos, 1));
 	}
 
 	@Override
 	public synchronized boolean rotateLeft() {
+		record(Replay.Input.ROTATE_LEFT);
 		if (this.isGameOver()) return false;
-		
-		PiecePos move = playPiecePos.copy().rotateLeft();
-		
-		boolean canMove = checkCollisionAndAdjust(move);
-		if (!canMove) return false;
-		if (move.equals(playPiecePos)) return false;
-		
-		playPiecePos = move;
-		return true;
+		return tryMove(PiecePos.packedRotate(playPiecePos, -1));
 	}
 
 	@Override
 	public synchronized boolean softDrop() {
+		record(Replay.Input.SOFT_DROP);
+		return drop();
+	}
+	
+	/**
+	 * Moves the piece down one row, or locks it if it cannot move
+	 */
+	protected boolean drop() {
 		if (this.isGameOver()) return false;
 		
-		PiecePos move = playPiecePos.copy().down();
-		
-		boolean canMove = checkCollisionAndAdjust(move);
-		if (!canMove || move.equals(playPiecePos)) {
+		int move = adjustPosition(playPiece, PiecePos.packedMove(playPiecePos, 0, 1));
+		if (move == PiecePos.PACKED_NONE || move == playPiecePos) {
 			settleCurrentPiece();
 			return true;
 		}
 		
 		playPiecePos = move;
+		snapshot = null;
 		return true;
 	}
 
 	@Override
 	public synchronized boolean hardDrop() {
+		record(Replay.Input.HARD_DROP);
 		if (this.isGameOver()) return false;
 		
 		playPiecePos = getHardDropPos(playPiecePos);
@@ -362,47 +503,243 @@ public class TetrisImpl implements ITetris {
 		return true;
 	}
 
-	private PiecePos getHardDropPos(PiecePos initialPos) {
-		PiecePos move = initialPos.copy();
-		do {
-			move.down();
-		} while (checkCollisionAndAdjust(move));
-		move.up();
+	/**
+	 * Starts recording every input and gravity tick of this game into the writer,
+	 * or stops recording if the writer is null. The writer is not closed here.
+	 */
+	public synchronized void setReplayWriter(ReplayWriter replayWriter) {
+		this.replayWriter = replayWriter;
+	}
+	
+	protected void record(Replay.Input input) {
+		if (replayWriter != null) replayWriter.input(input);
+	}
+
+	/**
+	 * Locks a piece onto the board and scores it like a drop would, without touching the
+	 * piece in play, the hold or the bank. Meant for searching: the placement can be taken
+	 * back with undo(). Neither method allocates once the undo records have grown to the
+	 * deepest search. Suits a depth first search on one thread. TetrisBot's beam search
+	 * keeps several boards alive at once and scores them on a pool, which one engine
+	 * under one lock cannot do, so it places pieces on BotBoard copies instead.
+	 * @param piece - piece to lock
+	 * @param packedPos - where to lock it, must fit on the board without adjustment
+	 * @return a token for undo(), or NO_UNDO if the piece does not fit there or would
+	 * lock above the top of the board (a game over)
+	 */
+	public synchronized int place(Piece piece, int packedPos) {
+		if (adjustPosition(piece, packedPos) != packedPos) return NO_UNDO;
+		int rotation = PiecePos.unpackRotation(packedPos);
+		if (PiecePos.unpackY(packedPos) + piece.getTopOffset(rotation) < 0) return NO_UNDO;
+		
+		if (numPlacements == placements.length) {
+			placements = Arrays.copyOf(placements, Math.max(8, numPlacements*2));
+			for (int i = numPlacements; i < placements.length; i++) {
+				placements[i] = new Placement(width);
+			}
+		}
+		Placement undo = placements[numPlacements];
+		undo.piece = piece;
+		undo.packedPos = packedPos;
+		undo.score = score;
+		undo.linesCleared = linesCleared;
+		undo.piecesPlaced = piecesPlaced;
+		undo.tetrisCombo = tetrisCombo;
+		undo.lineCombo = lineCombo;
+		undo.numCleared = 0;
+		
+		lockPiece(piece, packedPos, undo);
+		ghostY = NO_GHOST;
+		snapshot = null;
+		return numPlacements++;
+	}
+	
+	/**
+	 * Takes back the most recent placement that was not taken back yet
+	 * @param token - returned by the place() call to take back
+	 */
+	public synchronized void undo(int token) {
+		if (token != numPlacements-1) throw new IllegalStateException("Placements must be undone in reverse order, expected "+(numPlacements-1)+" but got "+token);
+		Placement undo = placements[--numPlacements];
+		
+		// Put the cleared rows back. Going top down, each row that stayed moves up to its
+		// old index; rows above it were cleared or were already moved.
+		if (undo.numCleared > 0) {
+			int read = undo.numCleared;
+			int cleared = undo.numCleared-1;	// Saved bottom up, so the topmost is last
+			for (int y = 0; y < height; y++) {
+				if (cleared >= 0 && undo.clearedRows[cleared] == y) {
+					occupancy.fillRow(y);
+					System.arraycopy(undo.clearedColors[cleared], 0, board[y], 0, width);
+					cleared--;
+					continue;
+				}
+				if (read != y) {
+					occupancy.copyRow(read, y);
+					Color[] row = board[y];
+					board[y] = board[read];
+					board[read] = row;
+				}
+				read++;
+			}
+			occupancy.rowsInserted(undo.numCleared, undo.clearedRows[undo.numCleared-1]);
+		}
+		
+		// Remove the piece
+		Piece piece = undo.piece;
+		int posX = PiecePos.unpackX(undo.packedPos);
+		int posY = PiecePos.unpackY(undo.packedPos);
+		int rotation = PiecePos.unpackRotation(undo.packedPos);
+		for (int i = 0; i < Piece.NUM_CELLS; i++) {
+			int x = posX + piece.getCellX(rotation, i);
+			int y = posY + piece.getCellY(rotation, i);
+			occupancy.empty(x, y);
+			board[y][x] = Color.NONE;
+		}
+		
+		score = undo.score;
+		linesCleared = undo.linesCleared;
+		piecesPlaced = undo.piecesPlaced;
+		tetrisCombo = undo.tetrisCombo;
+		lineCombo = undo.lineCombo;
+		ghostY = NO_GHOST;
+		snapshot = null;
+	}
+	
+	/**
+	 * What undo() needs to take back one place()
+	 */
+	protected static class Placement {
+		Piece piece;
+		int packedPos;
+		int score, linesCleared, piecesPlaced, tetrisCombo, lineCombo;
+		
+		int numCleared;
+		final int[] clearedRows = new int[Piece.NUM_CELLS];	// A piece spans at most 4 rows
+		final Color[][] clearedColors;
+		
+		Placement(int width) {
+			this.clearedColors = new Color[Piece.NUM_CELLS][width];
+		}
+		
+		void saveClearedRow(int y, Color[] row) {
+			clearedRows[numCleared] = y;
+			System.arraycopy(row, 0, clearedColors[numCleared], 0, row.length);
+			numCleared++;
+		}
+	}
+
+	/**
+	 * Captures the complete game state, see Replay.Keyframe
+	 */
+	public synchronized Replay.Keyframe captureKeyframe() {
+		Replay.Keyframe keyframe = new Replay.Keyframe();
+		keyframe.piecesPlaced = piecesPlaced;
+		keyframe.score = score;
+		keyframe.linesCleared = linesCleared;
+		keyframe.actionCombo = tetrisCombo;
+		keyframe.lineCombo = lineCombo;
+		keyframe.playPiece = playPiece;
+		keyframe.playPiecePos = playPiecePos;
+		keyframe.holdPiece = holdPiece;
+		keyframe.swapUsed = swapUsed;
+		keyframe.piecesDrawn = banks.getDrawn();
+		keyframe.piecesQueued = banks.getSize();
+		keyframe.words = occupancy.copyWords();
+		keyframe.colors = new byte[width*height];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				keyframe.colors[y*width + x] = (byte) board[y][x].ordinal();
+			}
+		}
+		return keyframe;
+	}
+
+	/**
+	 * Puts the game into a captured state
+	 * @param keyframe - state from captureKeyframe() on a game with the same rules
+	 * @param randomizer - new randomizer equivalent to the one the captured game started with
+	 */
+	public synchronized void restoreKeyframe(Replay.Keyframe keyframe, PieceRandomizer randomizer) {
+		if (keyframe.words.length != height*occupancy.getWordsPerRow() || keyframe.colors.length != width*height) {
+			throw new IllegalArgumentException("Keyframe does not match the "+width+"x"+height+" board");
+		}
 		
-		return move;
+		occupancy.setWords(keyframe.words);
+		Color[] colors = Color.values();
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				board[y][x] = colors[keyframe.colors[y*width + x]];
+			}
+		}
+		banks.restore(randomizer, keyframe.piecesDrawn, keyframe.piecesQueued);
+		
+		piecesPlaced = keyframe.piecesPlaced;
+		score = keyframe.score;
+		linesCleared = keyframe.linesCleared;
+		tetrisCombo = keyframe.actionCombo;
+		lineCombo = keyframe.lineCombo;
+		playPiece = keyframe.playPiece;
+		playPiecePos = keyframe.playPiecePos;
+		holdPiece = keyframe.holdPiece;
+		swapUsed = keyframe.swapUsed;
+		gameOver = false;
+		ghostY = NO_GHOST;
+		snapshot = null;
+	}
+
+	/**
+	 * Returns the packed position the piece in play would land at if dropped from the given packed position.
+	 */
+	protected int getHardDropPos(int initialPos) {
+		int x = PiecePos.unpackX(initialPos);
+		int rotation = PiecePos.unpackRotation(initialPos);
+		return PiecePos.pack(x, occupancy.dropY(playPiece, x, PiecePos.unpackY(initialPos), rotation), rotation);
 	}
 
 
 	@Override
 	public synchronized boolean moveLeft() {
+		record(Replay.Input.MOVE_LEFT);
 		if (this.isGameOver()) return false;
-		
-		PiecePos move = playPiecePos.copy().left();
-		
-		boolean canMove = checkCollisionAndAdjust(move);
-		if (!canMove) return false;
-		if (move.equals(playPiecePos)) return false;
-		
-		playPiecePos = move;
-		return true;
+		return tryMove(PiecePos.packedMove(playPiecePos, -1, 0));
 	}
 
 	@Override
 	public synchronized boolean moveRight() {
+		record(Replay.Input.MOVE_RIGHT);
+		if (this.isGameOver()) return false;
+		return tryMove(PiecePos.packedMove(playPiecePos, 1, 0));
+	}
+
+	@Override
+	public synchronized boolean playPlacement(boolean swap, int packedPos) {
 		if (this.isGameOver()) return false;
 		
-		PiecePos move = playPiecePos.copy().right();
+		Piece piece = playPiece;
+		int start = playPiecePos;
+		if (swap) {
+			if (!canSwap()) return false;
+			piece = (holdPiece != null) ? holdPiece : banks.peek(0);
+			start = PiecePos.getStartPositionPacked(this);
+		}
 		
-		boolean canMove = checkCollisionAndAdjust(move);
-		if (!canMove) return false;
-		if (move.equals(playPiecePos)) return false;
+		if (generator == null) generator = new PlacementGenerator(width, height);
+		if (generator.generate(occupancy, piece, start) == 0) return false;
+		int placement = generator.indexOf(packedPos);
+		if (placement < 0) return false;
 		
-		playPiecePos = move;
+		// The inputs go through the usual controls, so they are scored and recorded alike
+		if (swap) swap();
+		for (Replay.Input input : generator.getPath(placement)) {
+			input.apply(this);
+		}
 		return true;
 	}
 
 	@Override
 	public synchronized boolean restart() {
+		record(Replay.Input.RESTART);
 		reset();
 		return true;
 	}
@@ -414,7 +751,48 @@ public class TetrisImpl implements ITetris {
 
 	@Override
 	public PiecePos getPlayPiecePos() {
-		return playPiecePos.copy();
+		return PiecePos.unpack(playPiecePos);
+	}
+
+	@Override
+	public int getPlayPiecePosPacked() {
+		return playPiecePos;
+	}
+
+	@Override
+	public TetrisSnapshot snapshot() {
+		TetrisSnapshot snapshot = this.snapshot;
+		if (snapshot != null) return snapshot;
+		return publishSnapshot();
+	}
+	
+	@Override
+	public synchronized void read(Runnable reader) {
+		reader.run();
+	}
+	
+	/**
+	 * Builds a snapshot of the current state under the game lock and publishes it. Mutators
+	 * only clear the published snapshot, so a new one is built at most once per state change
+	 * and only if someone asks for it.
+	 */
+	protected synchronized TetrisSnapshot publishSnapshot() {
+		if (snapshot != null) return snapshot;
+		
+		byte[] colors = new byte[width*height];
+		for (int y = 0; y < height; y++) {
+			Color[] row = board[y];
+			for (int x = 0; x < width; x++) {
+				colors[y*width + x] = (byte) row[x].ordinal();
+			}
+		}
+		
+		int ghostY = updateGhost();
+		snapshot = new TetrisSnapshot(width, height, occupancy.copyWords(), colors, occupancy,
+				playPiece, playPiecePos, ghostY,
+				hasHold(), canSwap(), holdPiece, banks.copyVisible(),
+				gameOver, score, linesCleared, piecesPlaced, tetrisCombo, lineCombo);
+		return snapshot;
 	}
 
 	@Override
@@ -434,7 +812,7 @@ public class TetrisImpl implements ITetris {
 
 	@Override
 	public Piece getBankPiece(int i) {
-		return banks[i];
+		return banks.peek(i);
 	}
 
 	@Override
@@ -447,6 +825,11 @@ public class TetrisImpl implements ITetris {
 		return linesCleared;
 	}
 	
+	@Override
+	public int getPiecesPlaced() {
+		return piecesPlaced;
+	}
+	
 	@Override
 	public int getScore() {
 		return score;
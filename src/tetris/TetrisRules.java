@@ -0,0 +1,82 @@
+package tetris;
+
+/**
+ * The geometry a game is played with: board size and the number of preview pieces.
+ * Immutable, handed to TetrisImpl when it is constructed.
+ */
+public final class TetrisRules {
+
+	/**
+	 * The usual 10x20 board with 5 preview pieces
+	 */
+	public static final TetrisRules STANDARD = new TetrisRules(10, 20, 5);
+
+	/**
+	 * Largest width or height, limited by how PiecePos packs coordinates
+	 */
+	public static final int MAX_SIZE = 2047;
+
+	private final int width, height, numBanks;
+
+	/**
+	 * @param width - board columns, at least 4 so every piece can turn
+	 * @param height - board rows, at least 4
+	 * @param numBanks - number of upcoming pieces shown
+	 */
+	public TetrisRules(int width, int height, int numBanks) {
+		if (width < 4 || width > MAX_SIZE) throw new IllegalArgumentException("Board width must be between 4 and "+MAX_SIZE+", got "+width);
+		if (height < 4 || height > MAX_SIZE) throw new IllegalArgumentException("Board height must be between 4 and "+MAX_SIZE+", got "+height);
+		if (numBanks < 0) throw new IllegalArgumentException("Number of banks must not be negative, got "+numBanks);
+
+		this.width = width;
+		this.height = height;
+		this.numBanks = numBanks;
+	}
+
+	/**
+	 * Parses a size like "20x40"; the number of banks is the standard one
+	 */
+	public static TetrisRules parse(String size) {
+		int split = size.indexOf('x');
+		if (split < 0) throw new IllegalArgumentException("Board size must look like 10x20, got "+size);
+		return new TetrisRules(Integer.parseInt(size.substring(0, split)), Integer.parseInt(size.substring(split+1)), STANDARD.numBanks);
+	}
+
+	public int getBoardWidth() {
+		return width;
+	}
+
+	public int getBoardHeight() {
+		return height;
+	}
+
+	public int getNumBanks() {
+		return numBanks;
+	}
+
+	public TetrisRules withBoardSize(int width, int height) {
+		return new TetrisRules(width, height, numBanks);
+	}
+
+	public TetrisRules withNumBanks(int numBanks) {
+		return new TetrisRules(width, height, numBanks);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof TetrisRules)) return false;
+		TetrisRules other = (TetrisRules) obj;
+		return width == other.width && height == other.height && numBanks == other.numBanks;
+	}
+
+	@Override
+	public int hashCode() {
+		return (width * 31 + height) * 31 + numBanks;
+	}
+
+	@Override
+	public String toString() {
+		return width+"x"+height+", "+numBanks+" banks";
+	}
+
+}
@@ -0,0 +1,247 @@
+package tetris;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Plays TetrisBot against TetrisImpl without graphics, music or pacing, as fast as
+ * the CPU allows, and reports throughput and score statistics. Useful for evaluating
+ * bot changes on machines without a display.
+ *
+ * <pre>java -cp ./bin tetris/TetrisSimulator [games] [pieceLimit] [seed] [replayDirectory] [boardSize] [evaluator] [searchDepth] [beamWidth]</pre>
+ * 
+ * If a replay directory is given, it is created if needed and every game is recorded
+ * into it as game-N.replay; "-" records nothing. The board size looks like 20x40 and defaults to 10x20. The evaluator
+ * is "quick" for QuickEvaluator, or a weights file as written by WeightTuner for the
+ * ReferenceEvaluator with those weights instead of the default ones, and "-" keeps the
+ * default. The search depth and beam width default to DEFAULT_SEARCH_DEPTH and
+ * DEFAULT_BEAM_WIDTH, see TetrisBot.setSearchDepth() and setBeamWidth().
+ */
+public class TetrisSimulator {
+
+	public static void main(String[] args) throws IOException {
+		int games = (args.length > 0) ? Integer.parseInt(args[0]) : 10;
+		int pieceLimit = (args.length > 1) ? Integer.parseInt(args[1]) : 10000;
+		long seed = (args.length > 2) ? Long.parseLong(args[2]) : System.nanoTime();
+		Path replayDirectory = (args.length > 3 && !args[3].equals("-")) ? Paths.get(args[3]) : null;
+		TetrisRules rules = (args.length > 4) ? TetrisRules.parse(args[4]) : TetrisRules.STANDARD;
+		String evaluator = (args.length > 5 && !args[5].equals("-")) ? args[5] : null;
+		int searchDepth = (args.length > 6) ? Integer.parseInt(args[6]) : DEFAULT_SEARCH_DEPTH;
+		int beamWidth = (args.length > 7) ? Integer.parseInt(args[7]) : DEFAULT_BEAM_WIDTH;
+
+		System.out.println("Simulating "+games+" games of up to "+pieceLimit+" pieces on a "+rules+" board, seed "+seed
+				+", search depth "+searchDepth+", beam width "+beamWidth);
+
+		if (replayDirectory != null) Files.createDirectories(replayDirectory);
+
+		TetrisImpl tetris = new TetrisImpl(rules, seed);
+		TetrisBot bot = new TetrisBot(tetris);
+		bot.setSearchDepth(searchDepth);
+		bot.setBeamWidth(beamWidth);
+		if ("quick".equals(evaluator)) bot.setEvaluator(new QuickEvaluator());
+		else if (evaluator != null) bot.setWeights(BotWeights.load(Paths.get(evaluator)));
+
+		Statistics stats = new Statistics();
+		long start = System.nanoTime();
+		for (int i = 0; i < games; i++) {
+			stats.add(playGame(tetris, bot, gameSeed(seed, i), pieceLimit, replayFile(replayDirectory, i)));
+		}
+		stats.setElapsedNanos(System.nanoTime() - start);
+
+		stats.print(System.out);
+	}
+
+	/**
+	 * Number of bot moves between gravity ticks. Matches the TetrisPlayer defaults
+	 * (a bot move every 100 ms, a tick every 600 ms), and makes sure a piece the bot
+	 * cannot steer any further still falls and locks eventually.
+	 */
+	public static final int BOT_MOVES_PER_TICK = 6;
+
+	/**
+	 * Search depth of the bot in the simulator and TetrisBatchRunner. Searching only the
+	 * current piece places about twice as many pieces per second as the depth 3 search
+	 * the bot plays with in the game, and clears about as many lines per piece on a
+	 * 10x20 board, though it scores less as it sets up fewer tetrises. Pass a deeper
+	 * search to evaluate the beam search itself.
+	 */
+	public static final int DEFAULT_SEARCH_DEPTH = 1;
+	public static final int DEFAULT_BEAM_WIDTH = 8;
+
+	/**
+	 * Returns the seed of game number i in a run started with the given seed. The game
+	 * number is mixed in with the SplitMix64 finalizer. Stepping the seed by a constant
+	 * would not do: a step of SplittableRandom's own increment makes every game a shifted
+	 * copy of game 0's random stream.
+	 */
+	public static long gameSeed(long seed, int i) {
+		return mix(seed ^ mix(i + 1L));
+	}
+
+	/**
+	 * SplitMix64 finalizer: every input bit affects every output bit
+	 */
+	static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Returns the file game number i is recorded to, or null if no directory is given
+	 */
+	public static Path replayFile(Path replayDirectory, int i) {
+		if (replayDirectory == null) return null;
+		return replayDirectory.resolve("game-"+i+".replay");
+	}
+
+	/**
+	 * Plays one game with a fresh bot until it is lost or the piece limit is reached.
+	 */
+	public static GameResult playGame(long seed, int pieceLimit) {
+		TetrisImpl tetris = new TetrisImpl(seed);
+		return playGame(tetris, new TetrisBot(tetris), seed, pieceLimit);
+	}
+
+	/**
+	 * Plays one game on an existing engine and bot and records it into a replay file.
+	 * @param replayFile - file to record to, or null to not record
+	 */
+	public static GameResult playGame(TetrisImpl tetris, TetrisBot bot, long seed, int pieceLimit, Path replayFile) throws IOException {
+		if (replayFile == null) return playGame(tetris, bot, seed, pieceLimit);
+
+		ReplayWriter writer = ReplayWriter.open(replayFile, tetris, seed);
+		try {
+			tetris.setReplayWriter(writer);
+			return playGame(tetris, bot, seed, pieceLimit);
+		} finally {
+			tetris.setReplayWriter(null);
+			writer.close();
+		}
+	}
+
+	/**
+	 * Plays one game on an existing engine and bot, which are reset first. The bot must
+	 * be playing the given engine.
+	 */
+	public static GameResult playGame(TetrisImpl tetris, TetrisBot bot, long seed, int pieceLimit) {
+		tetris.newGame(new PieceRandomizer.SevenBag(seed));
+		bot.reset();
+
+		int moves = 0;
+		while (!tetris.isGameOver() && tetris.getPiecesPlaced() < pieceLimit) {
+			bot.play();
+			if (++moves % BOT_MOVES_PER_TICK == 0) tetris.updateTick();
+		}
+
+		return new GameResult(seed, tetris.getScore(), tetris.getLinesCleared(), tetris.getPiecesPlaced(), !tetris.isGameOver());
+	}
+
+	/**
+	 * The outcome of one simulated game
+	 */
+	public static class GameResult {
+		public final long seed;
+		public final int score, linesCleared, piecesPlaced;
+		public final boolean survived;
+
+		public GameResult(long seed, int score, int linesCleared, int piecesPlaced, boolean survived) {
+			this.seed = seed;
+			this.score = score;
+			this.linesCleared = linesCleared;
+			this.piecesPlaced = piecesPlaced;
+			this.survived = survived;
+		}
+	}
+
+	/**
+	 * Collects game results and summarizes them
+	 */
+	public static class Statistics {
+		private List<GameResult> results = new ArrayList<>();
+		private long elapsedNanos;
+
+		public void add(GameResult result) {
+			results.add(result);
+		}
+
+		public void addAll(Statistics other) {
+			results.addAll(other.results);
+		}
+
+		public void setElapsedNanos(long elapsedNanos) {
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		public int getNumGames() {
+			return results.size();
+		}
+
+		public long getTotalPieces() {
+			long total = 0;
+			for (GameResult result : results) total += result.piecesPlaced;
+			return total;
+		}
+
+		public long getTotalLines() {
+			long total = 0;
+			for (GameResult result : results) total += result.linesCleared;
+			return total;
+		}
+
+		public int getNumSurvived() {
+			int survived = 0;
+			for (GameResult result : results) if (result.survived) survived++;
+			return survived;
+		}
+
+		public double getPiecesPerSecond() {
+			if (elapsedNanos <= 0) return 0;
+			return getTotalPieces() * 1e9 / elapsedNanos;
+		}
+
+		public double getLinesPerPiece() {
+			long pieces = getTotalPieces();
+			if (pieces == 0) return 0;
+			return (double) getTotalLines() / pieces;
+		}
+
+		public void print(PrintStream out) {
+			out.println(String.format("Games:        %d (%d survived to the piece limit)", getNumGames(), getNumSurvived()));
+			out.println(String.format("Placements:   %d in %.2f s, %.0f per second", getTotalPieces(), elapsedNanos / 1e9, getPiecesPerSecond()));
+			out.println(String.format("Lines:        %d, %.4f per piece", getTotalLines(), getLinesPerPiece()));
+
+			int[] scores = new int[results.size()];
+			int[] lines = new int[results.size()];
+			int[] pieces = new int[results.size()];
+			for (int i = 0; i < results.size(); i++) {
+				scores[i] = results.get(i).score;
+				lines[i] = results.get(i).linesCleared;
+				pieces[i] = results.get(i).piecesPlaced;
+			}
+			out.println("Score/game:   "+distribution(scores));
+			out.println("Lines/game:   "+distribution(lines));
+			out.println("Pieces/game:  "+distribution(pieces));
+		}
+
+		private static String distribution(int[] values) {
+			if (values.length == 0) return "-";
+
+			int[] sorted = values.clone();
+			Arrays.sort(sorted);
+			double mean = 0;
+			for (int value : sorted) mean += value;
+			mean /= sorted.length;
+
+			return String.format("min %d, p25 %d, median %d, p75 %d, max %d, mean %.1f",
+					sorted[0], sorted[sorted.length/4], sorted[sorted.length/2], sorted[sorted.length*3/4], sorted[sorted.length-1], mean);
+		}
+	}
+
+}
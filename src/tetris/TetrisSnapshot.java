@@ -0,0 +1,229 @@
+package tetris;
+
+import tetris.ITetris.Color;
+import tetris.ITetris.Piece;
+import tetris.ITetris.PiecePos;
+
+/**
+ * An immutable copy of a tetris game state, returned by ITetris.snapshot(). Everything
+ * read from one snapshot describes the same moment of the game, so readers on other
+ * threads (graphics, observers) never see a half applied move and never need the game
+ * lock. Building one copies the board, so the bot reads the game through ITetris.read()
+ * instead.
+ */
+public final class TetrisSnapshot implements ITetris.BoardStats {
+
+	private static final Color[] COLORS = Color.values();
+
+	private final int width, height;
+	private final int wordsPerRow;
+	private final long[] words;
+	private final byte[] colors;
+	private final int[] columnHeights, columnFills, rowFills;
+	private final int holes, maxHeight;
+
+	private final Piece playPiece;
+	private final int playPiecePos;
+	private final int ghostY;
+
+	private final boolean hasHold, canSwap;
+	private final Piece holdPiece;
+	private final Piece[] banks;
+
+	private final boolean gameOver;
+	private final int score, linesCleared, piecesPlaced, actionCombo, lineCombo;
+
+	/**
+	 * Creates a snapshot. The arrays are not copied, the caller must hand over arrays
+	 * that are never modified afterwards.
+	 * @param words - occupancy bitmasks as returned by BitBoard.copyWords()
+	 * @param colors - Color ordinal of each locked tile, indexed by y*width + x
+	 * @param stats - statistics of the locked tiles, copied
+	 * @param playPiecePos - packed position of the piece in play, or PiecePos.PACKED_NONE
+	 * @param ghostY - row the piece in play would hard drop to
+	 */
+	public TetrisSnapshot(int width, int height, long[] words, byte[] colors, ITetris.BoardStats stats,
+			Piece playPiece, int playPiecePos, int ghostY,
+			boolean hasHold, boolean canSwap, Piece holdPiece, Piece[] banks,
+			boolean gameOver, int score, int linesCleared, int piecesPlaced, int actionCombo, int lineCombo) {
+
+		this.width = width;
+		this.height = height;
+		this.wordsPerRow = (width + 63) >>> 6;
+		this.words = words;
+		this.colors = colors;
+		this.columnHeights = new int[width];
+		this.columnFills = new int[width];
+		for (int x = 0; x < width; x++) {
+			columnHeights[x] = stats.getColumnHeight(x);
+			columnFills[x] = stats.getColumnFill(x);
+		}
+		this.rowFills = new int[height];
+		for (int y = 0; y < height; y++) {
+			rowFills[y] = stats.getRowFill(y);
+		}
+		this.holes = stats.getHoles();
+		this.maxHeight = stats.getMaxHeight();
+		this.playPiece = playPiece;
+		this.playPiecePos = playPiecePos;
+		this.ghostY = ghostY;
+		this.hasHold = hasHold;
+		this.canSwap = canSwap;
+		this.holdPiece = holdPiece;
+		this.banks = banks;
+		this.gameOver = gameOver;
+		this.score = score;
+		this.linesCleared = linesCleared;
+		this.piecesPlaced = piecesPlaced;
+		this.actionCombo = actionCombo;
+		this.lineCombo = lineCombo;
+	}
+
+	public int getBoardWidth() {
+		return width;
+	}
+
+	public int getBoardHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the number of 64 bit occupancy words per row
+	 */
+	public int getWordsPerRow() {
+		return wordsPerRow;
+	}
+
+	/**
+	 * Returns one word of the occupancy bitmask of row y, see BitBoard.getWord()
+	 */
+	public long getWord(int y, int word) {
+		return words[y*wordsPerRow + word];
+	}
+
+	/**
+	 * Returns the tile at the position including the piece in play and its ghost,
+	 * like ITetris.getTile(). Tiles outside of the board are Color.GRAY.
+	 */
+	public Color getTile(int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height) return Color.GRAY;
+
+		if (playPiece != null && playPiecePos != PiecePos.PACKED_NONE) {
+			int rotation = PiecePos.unpackRotation(playPiecePos);
+			int column = x - PiecePos.unpackX(playPiecePos) - playPiece.getLeftOffset(rotation);
+			if (column >= 0 && column < playPiece.getWidth(rotation)) {
+				int bit = 1 << column;
+
+				int row = y - PiecePos.unpackY(playPiecePos) - playPiece.getTopOffset(rotation);
+				if (row >= 0 && row < playPiece.getHeight(rotation) && (playPiece.getRowMask(rotation, row) & bit) != 0) return playPiece.getColor();
+
+				row = y - ghostY - playPiece.getTopOffset(rotation);
+				if (row >= 0 && row < playPiece.getHeight(rotation) && (playPiece.getRowMask(rotation, row) & bit) != 0) return Color.GHOST;
+			}
+		}
+
+		return COLORS[colors[y*width + x]];
+	}
+
+	/**
+	 * Returns the locked tile at the position, like ITetris.getLockedTile()
+	 */
+	public Color getLockedTile(int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height) return Color.GRAY;
+		return COLORS[colors[y*width + x]];
+	}
+
+	/**
+	 * Returns true if the tile is locked. Tiles outside of the board count as locked.
+	 */
+	public boolean isTileLocked(int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height) return true;
+		return ((words[y*wordsPerRow + (x >>> 6)] >>> x) & 1) != 0;
+	}
+
+	@Override
+	public int getColumnHeight(int x) {
+		return columnHeights[x];
+	}
+
+	@Override
+	public int getColumnFill(int x) {
+		return columnFills[x];
+	}
+
+	@Override
+	public int getRowFill(int y) {
+		return rowFills[y];
+	}
+
+	@Override
+	public int getHoles() {
+		return holes;
+	}
+
+	@Override
+	public int getMaxHeight() {
+		return maxHeight;
+	}
+
+	public Piece getPlayPiece() {
+		return playPiece;
+	}
+
+	public PiecePos getPlayPiecePos() {
+		return PiecePos.unpack(playPiecePos);
+	}
+
+	public int getPlayPiecePosPacked() {
+		return playPiecePos;
+	}
+
+	public int getGhostY() {
+		return ghostY;
+	}
+
+	public boolean hasHold() {
+		return hasHold;
+	}
+
+	public boolean canSwap() {
+		return canSwap;
+	}
+
+	public Piece getHoldPiece() {
+		return holdPiece;
+	}
+
+	public int getNumBanks() {
+		return banks.length;
+	}
+
+	public Piece getBankPiece(int i) {
+		return banks[i];
+	}
+
+	public boolean isGameOver() {
+		return gameOver;
+	}
+
+	public int getScore() {
+		return score;
+	}
+
+	public int getLinesCleared() {
+		return linesCleared;
+	}
+
+	public int getPiecesPlaced() {
+		return piecesPlaced;
+	}
+
+	public int getActionCombo() {
+		return actionCombo;
+	}
+
+	public int getLineCombo() {
+		return lineCombo;
+	}
+
+}
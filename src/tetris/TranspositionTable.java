@@ -0,0 +1,92 @@
+package tetris;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed size cache from 64 bit position hashes to values, safe to use from many
+ * threads without locking. Entries are immutable and published with a single volatile
+ * write, so readers see either an old entry or a new one, never half of one. Two threads
+ * storing into the same bucket at once may lose one of the entries, which only costs
+ * a recomputation.
+ *
+ * <p>Every key may live in the two slots of its bucket. A new entry takes the slot of
+ * its key or an empty slot, else the first slot if it is from an older generation, else
+ * the second slot. The first slot thus keeps the older of two entries of the current
+ * generation.</p>
+ */
+public class TranspositionTable<V> {
+
+	private static class Entry<V> {
+		final long key;
+		final V value;
+		final int generation;
+
+		Entry(long key, V value, int generation) {
+			this.key = key;
+			this.value = value;
+			this.generation = generation;
+		}
+	}
+
+	private final AtomicReferenceArray<Entry<V>> entries;
+	private final int mask;
+	private volatile int generation;
+
+	/**
+	 * @param capacity - number of entries, rounded up to a power of two of at least 2
+	 */
+	public TranspositionTable(int capacity) {
+		if (capacity < 1 || capacity > (1 << 30)) throw new IllegalArgumentException("Capacity must be between 1 and 2^30, got "+capacity);
+		int size = Math.max(2, Integer.highestOneBit(capacity-1) << 1);
+		this.entries = new AtomicReferenceArray<>(size);
+		this.mask = (size-1) & ~1;
+	}
+
+	public int getCapacity() {
+		return entries.length();
+	}
+
+	/**
+	 * Returns the value stored for the key, or null
+	 */
+	public V get(long key) {
+		int i = (int) key & mask;
+		Entry<V> entry = entries.get(i);
+		if (entry != null && entry.key == key) return entry.value;
+		entry = entries.get(i+1);
+		if (entry != null && entry.key == key) return entry.value;
+		return null;
+	}
+
+	/**
+	 * Stores a value for the key, replacing an entry of the key's bucket
+	 */
+	public void put(long key, V value) {
+		int i = (int) key & mask;
+		Entry<V> first = entries.get(i), second = entries.get(i+1);
+		int slot;
+		if (first == null || first.key == key) slot = i;
+		else if (second == null || second.key == key) slot = i+1;
+		else if (first.generation != generation) slot = i;
+		else slot = i+1;
+		entries.set(slot, new Entry<>(key, value, generation));
+	}
+
+	/**
+	 * Starts a new generation. Entries stored before are kept, but are the first to be
+	 * replaced. Not to be called while other threads store entries.
+	 */
+	public void nextGeneration() {
+		generation++;
+	}
+
+	/**
+	 * Removes every entry
+	 */
+	public void clear() {
+		for (int i = 0; i < entries.length(); i++) {
+			entries.set(i, null);
+		}
+	}
+
+}
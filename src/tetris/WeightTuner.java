@@ -0,0 +1,401 @@
+package tetris;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import tetris.BotWeights.Weight;
+import tetris.TetrisSimulator.GameResult;
+
+/**
+ * Tunes the bot's BotWeights offline with a separable CMA-ES, an evolution strategy that
+ * adapts one step size per weight. Every generation samples a population of weight sets
+ * around the current mean and plays the same seeded headless games with each of them,
+ * spread over all cores like TetrisBatchRunner. The best half moves the mean.
+ *
+ * <p>A weight set scores the lines it clears per piece of the piece limit, so it is
+ * rewarded both for clearing lines efficiently and for surviving: a lost game clears
+ * nothing for the rest of its pieces.</p>
+ *
+ * <p>Every weight of BotWeights is searched, since every one changes how
+ * ReferenceEvaluator plays. The line clear weights (ROW_CLEAR, TETRIS, PERFECT and their
+ * combo, bubble popper and critical variants) did not before ReferenceEvaluator counted
+ * full rows by the board's width, so checkpoints written before then hold meaningless
+ * values for them and are refused, see CHECKPOINT_FORMAT.</p>
+ *
+ * <p>The state is saved to the checkpoint file after every generation, and a run started
+ * with an existing checkpoint continues from it with the checkpoint's seed, games and
+ * piece limit. The mean of the search, the best guess so far, is also written next to
+ * it as NAME.weights, which TetrisSimulator can play with.</p>
+ *
+ * <pre>java -cp ./bin tetris/WeightTuner [generations] [games] [pieceLimit] [seed] [threads] [checkpointFile]</pre>
+ */
+public class WeightTuner {
+
+	public static void main(String[] args) throws IOException {
+		int generations = (args.length > 0) ? Integer.parseInt(args[0]) : 100;
+		int games = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+		int pieceLimit = (args.length > 2) ? Integer.parseInt(args[2]) : 1000;
+		long seed = (args.length > 3) ? Long.parseLong(args[3]) : System.nanoTime();
+		int threads = (args.length > 4) ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+		Path checkpoint = Paths.get((args.length > 5) ? args[5] : "tuner.checkpoint");
+
+		WeightTuner tuner;
+		if (Files.exists(checkpoint)) {
+			tuner = load(checkpoint, threads);
+			System.out.println("Resuming "+checkpoint+" at generation "+tuner.generation+", "+tuner.games+" games of up to "+tuner.pieceLimit+" pieces, seed "+tuner.seed);
+		} else {
+			tuner = new WeightTuner(games, pieceLimit, seed, threads);
+			System.out.println("Tuning with "+tuner.games+" games of up to "+tuner.pieceLimit+" pieces on "+threads+" threads, seed "+tuner.seed);
+		}
+
+		try {
+			if (tuner.generation == 0 && Double.isNaN(tuner.defaultFitness)) {
+				tuner.defaultFitness = tuner.evaluate(new BotWeights[] { BotWeights.DEFAULT }, 0)[0];
+				tuner.save(checkpoint);
+			}
+			System.out.printf("Default weights: %.4f lines per piece%n", tuner.defaultFitness);
+
+			while (tuner.generation < generations) {
+				long start = System.nanoTime();
+				double[] fitness = tuner.step();
+				tuner.save(checkpoint);
+
+				double best = Double.NEGATIVE_INFINITY, mean = 0;
+				for (double f : fitness) {
+					best = Math.max(best, f);
+					mean += f / fitness.length;
+				}
+				System.out.printf("Generation %d: best %.4f, mean %.4f, sigma %.4f, %.1fs%n",
+						tuner.generation, best, mean, tuner.sigma, (System.nanoTime() - start) / 1e9);
+			}
+
+			System.out.println("Weights after generation "+tuner.generation+":");
+			System.out.print(tuner.getMean());
+		} finally {
+			tuner.shutdown();
+		}
+	}
+
+	private final int games, pieceLimit;
+	private final long seed;
+	private final ForkJoinPool pool;
+	private final ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+
+	/**
+	 * Version of the checkpoint file. 2 is the first one written while the line clear
+	 * weights were scored, earlier checkpoints have no version.
+	 */
+	public static final int CHECKPOINT_FORMAT = 2;
+
+	// Streams derived from the seed, see streamSeed()
+	private static final long GAMES_STREAM = 1, SAMPLES_STREAM = 2;
+
+	// Search constants, see Hansen's "The CMA Evolution Strategy: A Tutorial" and Ros and
+	// Hansen's "A Simple Modification in CMA-ES Achieving Linear Time and Space Complexity"
+	private final int n, lambda, mu;
+	private final double[] recombination;
+	private final double mueff, cs, ds, cc, c1, cmu, chiN;
+
+	// Search state, in units of scale() per weight
+	private int generation;
+	private double sigma = 0.3;
+	private final double[] mean, variances, pathSigma, pathC;
+	private double defaultFitness = Double.NaN;
+
+	public WeightTuner(int games, int pieceLimit, long seed, int threads) {
+		if (games < 1) throw new IllegalArgumentException("Need at least one game per weight set, got "+games);
+		if (pieceLimit < 1) throw new IllegalArgumentException("Piece limit must be positive, got "+pieceLimit);
+		this.games = games;
+		this.pieceLimit = pieceLimit;
+		this.seed = seed;
+		this.pool = new ForkJoinPool(threads);
+
+		Weight[] weights = Weight.values();
+		n = weights.length;
+		lambda = 4 + (int) (3 * Math.log(n));
+		mu = lambda / 2;
+
+		recombination = new double[mu];
+		double sum = 0, sumSquares = 0;
+		for (int i = 0; i < mu; i++) {
+			recombination[i] = Math.log(mu + 0.5) - Math.log(i + 1);
+			sum += recombination[i];
+		}
+		for (int i = 0; i < mu; i++) {
+			recombination[i] /= sum;
+			sumSquares += recombination[i] * recombination[i];
+		}
+		mueff = 1 / sumSquares;
+
+		cs = (mueff + 2) / (n + mueff + 5);
+		ds = 1 + 2 * Math.max(0, Math.sqrt((mueff - 1) / (n + 1)) - 1) + cs;
+		cc = (4 + mueff / n) / (n + 4 + 2 * mueff / n);
+		double c1Full = 2 / ((n + 1.3) * (n + 1.3) + mueff);
+		double cmuFull = Math.min(1 - c1Full, 2 * (mueff - 2 + 1 / mueff) / ((n + 2) * (n + 2) + mueff));
+		c1 = c1Full * (n + 2) / 3;
+		cmu = Math.min(1 - c1, cmuFull * (n + 2) / 3);
+		chiN = Math.sqrt(n) * (1 - 1.0 / (4 * n) + 1.0 / (21.0 * n * n));
+
+		mean = new double[n];
+		variances = new double[n];
+		pathSigma = new double[n];
+		pathC = new double[n];
+		for (Weight weight : weights) {
+			mean[weight.ordinal()] = weight.getDefault() / scale(weight);
+			variances[weight.ordinal()] = 1;
+		}
+	}
+
+	/**
+	 * Size of one search unit of a weight: its default, or 100 for scores that start small.
+	 * Thresholds are counted in rows, bubbles or pieces, so they keep their own size.
+	 */
+	private static double scale(Weight weight) {
+		if (isCount(weight)) return Math.max(1, weight.getDefault());
+		return Math.max(100, Math.abs(weight.getDefault()));
+	}
+
+	private static boolean isCount(Weight weight) {
+		return weight == Weight.BUBBLE_POPPER_BUBBLES || weight == Weight.CRITICAL_HEIGHT || weight == Weight.LINE_SOON_PIECES;
+	}
+
+	/**
+	 * Converts search coordinates to weights, rounding and keeping counts non-negative
+	 */
+	private static BotWeights decode(double[] x) {
+		Weight[] weights = Weight.values();
+		int[] values = new int[weights.length];
+		for (Weight weight : weights) {
+			long value = Math.round(x[weight.ordinal()] * scale(weight));
+			if (isCount(weight)) value = Math.max(0, value);
+			values[weight.ordinal()] = (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+		}
+		return new BotWeights(values);
+	}
+
+	/**
+	 * Returns the mean of the search as weights
+	 */
+	public BotWeights getMean() {
+		return decode(mean);
+	}
+
+	public int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Samples, evaluates and selects one generation
+	 * @return the fitness of each weight set of the generation
+	 */
+	public double[] step() {
+		Random random = new Random(streamSeed(SAMPLES_STREAM, generation));
+		double[][] steps = new double[lambda][n];	// Sample minus mean, over sigma
+		BotWeights[] candidates = new BotWeights[lambda];
+		double[] x = new double[n];
+		for (int k = 0; k < lambda; k++) {
+			for (int j = 0; j < n; j++) {
+				steps[k][j] = Math.sqrt(variances[j]) * random.nextGaussian();
+				x[j] = mean[j] + sigma * steps[k][j];
+			}
+			candidates[k] = decode(x);
+		}
+
+		final double[] fitness = evaluate(candidates, generation);
+
+		// Best first, earlier samples win ties
+		Integer[] order = new Integer[lambda];
+		for (int k = 0; k < lambda; k++) order[k] = k;
+		Arrays.sort(order, Comparator.comparingDouble((Integer k) -> -fitness[k]));
+
+		double[] weightedStep = new double[n];
+		for (int i = 0; i < mu; i++) {
+			for (int j = 0; j < n; j++) {
+				weightedStep[j] += recombination[i] * steps[order[i]][j];
+			}
+		}
+
+		double norm = 0;
+		for (int j = 0; j < n; j++) {
+			mean[j] += sigma * weightedStep[j];
+			pathSigma[j] = (1 - cs) * pathSigma[j] + Math.sqrt(cs * (2 - cs) * mueff) * weightedStep[j] / Math.sqrt(variances[j]);
+			norm += pathSigma[j] * pathSigma[j];
+		}
+		norm = Math.sqrt(norm);
+
+		boolean stalled = norm / Math.sqrt(1 - Math.pow(1 - cs, 2 * (generation + 1))) / chiN >= 1.4 + 2.0 / (n + 1);
+		for (int j = 0; j < n; j++) {
+			pathC[j] = (1 - cc) * pathC[j] + (stalled ? 0 : Math.sqrt(cc * (2 - cc) * mueff) * weightedStep[j]);
+
+			double rankMu = 0;
+			for (int i = 0; i < mu; i++) {
+				rankMu += recombination[i] * steps[order[i]][j] * steps[order[i]][j];
+			}
+			variances[j] = (1 - c1 - cmu) * variances[j]
+					+ c1 * (pathC[j] * pathC[j] + (stalled ? cc * (2 - cc) * variances[j] : 0))
+					+ cmu * rankMu;
+		}
+		sigma *= Math.exp((cs / ds) * (norm / chiN - 1));
+
+		generation++;
+		return fitness;
+	}
+
+	/**
+	 * Plays the games of a generation with every weight set, in parallel
+	 * @return lines cleared per piece of the piece limit, for each weight set
+	 */
+	public double[] evaluate(BotWeights[] candidates, int generation) {
+		int[] lines = new int[candidates.length * games];
+		pool.invoke(new GameRange(candidates, streamSeed(GAMES_STREAM, generation), lines, 0, lines.length));
+
+		double[] fitness = new double[candidates.length];
+		for (int i = 0; i < lines.length; i++) {
+			fitness[i / games] += lines[i] / (double) games / pieceLimit;
+		}
+		return fitness;
+	}
+
+	/**
+	 * Returns the seed of one stream of a generation, the games or the sampling noise.
+	 * The stream and the generation are mixed into the tuner's seed one after the other
+	 * with the SplitMix64 finalizer, so every pair gets an independent seed. Game i of the
+	 * generation then plays TetrisSimulator.gameSeed() of the games stream's seed and i.
+	 */
+	private long streamSeed(long stream, int generation) {
+		return TetrisSimulator.mix(TetrisSimulator.mix(seed ^ TetrisSimulator.mix(stream)) ^ TetrisSimulator.mix(generation + 1L));
+	}
+
+	/**
+	 * Stops the worker threads. The tuner cannot be used afterwards.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * One engine and bot pair per thread, reused for every game the thread plays
+	 */
+	private static class Worker {
+		final TetrisImpl tetris = new TetrisImpl(0);
+		final TetrisBot bot = new TetrisBot(tetris);
+	}
+
+	/**
+	 * Plays games start (inclusive) to end (exclusive), game i being game i % games of
+	 * weight set i / games. Splits the range in halves so idle threads can steal work.
+	 */
+	private class GameRange extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final BotWeights[] candidates;
+		private final long seed;
+		private final int[] lines;
+		private final int start, end;
+
+		GameRange(BotWeights[] candidates, long seed, int[] lines, int start, int end) {
+			this.candidates = candidates;
+			this.seed = seed;
+			this.lines = lines;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start > 1) {
+				int mid = (start + end) >>> 1;
+				invokeAll(new GameRange(candidates, seed, lines, start, mid),
+						new GameRange(candidates, seed, lines, mid, end));
+				return;
+			}
+
+			for (int i = start; i < end; i++) {
+				Worker worker = workers.get();
+				worker.bot.setWeights(candidates[i / games]);
+				GameResult result = TetrisSimulator.playGame(worker.tetris, worker.bot, TetrisSimulator.gameSeed(seed, i % games), pieceLimit);
+				lines[i] = result.linesCleared;
+			}
+		}
+	}
+
+	/**
+	 * Writes the search state to the checkpoint file, replacing it in one step, and the
+	 * mean weights next to it
+	 */
+	public void save(Path checkpoint) throws IOException {
+		Properties state = new Properties();
+		state.setProperty("format", Integer.toString(CHECKPOINT_FORMAT));
+		state.setProperty("games", Integer.toString(games));
+		state.setProperty("pieceLimit", Integer.toString(pieceLimit));
+		state.setProperty("seed", Long.toString(seed));
+		state.setProperty("generation", Integer.toString(generation));
+		state.setProperty("sigma", Double.toString(sigma));
+		state.setProperty("defaultFitness", Double.toString(defaultFitness));
+		state.setProperty("mean", join(mean));
+		state.setProperty("variances", join(variances));
+		state.setProperty("pathSigma", join(pathSigma));
+		state.setProperty("pathC", join(pathC));
+
+		Path temp = checkpoint.resolveSibling(checkpoint.getFileName()+".tmp");
+		try (OutputStream out = Files.newOutputStream(temp)) {
+			state.store(out, "WeightTuner checkpoint, weights in order of BotWeights.Weight");
+		}
+		Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		getMean().save(checkpoint.resolveSibling(checkpoint.getFileName()+".weights"));
+	}
+
+	/**
+	 * Continues a search from a checkpoint file written by save()
+	 */
+	public static WeightTuner load(Path checkpoint, int threads) throws IOException {
+		Properties state = new Properties();
+		try (InputStream in = Files.newInputStream(checkpoint)) {
+			state.load(in);
+		}
+		int format = Integer.parseInt(state.getProperty("format", "1"));
+		if (format != CHECKPOINT_FORMAT) throw new IllegalArgumentException("Checkpoint "+checkpoint+" has format "+format+", expected "+CHECKPOINT_FORMAT
+				+". Its line clear weights were tuned while they had no effect, start a new run.");
+
+		WeightTuner tuner = new WeightTuner(Integer.parseInt(state.getProperty("games")), Integer.parseInt(state.getProperty("pieceLimit")),
+				Long.parseLong(state.getProperty("seed")), threads);
+		tuner.generation = Integer.parseInt(state.getProperty("generation"));
+		tuner.sigma = Double.parseDouble(state.getProperty("sigma"));
+		tuner.defaultFitness = Double.parseDouble(state.getProperty("defaultFitness"));
+		split(state.getProperty("mean"), tuner.mean);
+		split(state.getProperty("variances"), tuner.variances);
+		split(state.getProperty("pathSigma"), tuner.pathSigma);
+		split(state.getProperty("pathC"), tuner.pathC);
+		return tuner;
+	}
+
+	private static String join(double[] values) {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) text.append(',');
+			text.append(values[i]);
+		}
+		return text.toString();
+	}
+
+	private static void split(String text, double[] values) {
+		String[] parts = text.split(",");
+		if (parts.length != values.length) throw new IllegalArgumentException("Checkpoint has "+parts.length+" weights, expected "+values.length);
+		for (int i = 0; i < values.length; i++) {
+			values[i] = Double.parseDouble(parts[i]);
+		}
+	}
+
+}
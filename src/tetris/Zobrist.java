@@ -0,0 +1,52 @@
+package tetris;
+
+/**
+ * Zobrist hashing: every filled tile and every hashed piece of state has a pseudo random
+ * 64 bit key, and the hash of a position is the xor of its keys. Filling or emptying a
+ * tile updates a hash with a single xor. The keys are computed from what they stand for
+ * instead of being looked up in a table, which would not fit boards of up to
+ * TetrisRules.MAX_SIZE tiles square.
+ */
+public final class Zobrist {
+
+	/**
+	 * Kind of the tile keys. Other kinds are chosen by whoever hashes more state.
+	 */
+	public static final int TILE = 0;
+
+	private Zobrist() {}
+
+	/**
+	 * Returns the key of a value of some kind of state
+	 */
+	public static long key(int kind, int value) {
+		// SplitMix64 finalizer, so neighboring values get unrelated keys
+		long z = (((long) kind << 32) | (value & 0xFFFFFFFFL)) * 0x9E3779B97F4A7C15L + 0x632BE59BD9B4E019L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Returns the key of a filled tile
+	 */
+	public static long tile(int x, int y) {
+		return key(TILE, y * (TetrisRules.MAX_SIZE+1) + x);
+	}
+
+	/**
+	 * Returns the hash of the filled tiles of a board
+	 */
+	public static long hash(BitBoard board) {
+		long hash = 0;
+		for (int y = 0; y < board.getHeight(); y++) {
+			for (int w = 0; w < board.getWordsPerRow(); w++) {
+				for (long bits = board.getWord(y, w); bits != 0; bits &= bits-1) {
+					hash ^= tile(w*64 + Long.numberOfTrailingZeros(bits), y);
+				}
+			}
+		}
+		return hash;
+	}
+
+}
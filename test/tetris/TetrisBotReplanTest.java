@@ -0,0 +1,56 @@
+package tetris;
+
+/**
+ * Regression test for the bot planning again after gravity took the piece past its
+ * plan. With two gravity ticks after every bot move, pieces often fall past the
+ * placement the bot steers them to, and the new plan sometimes places the piece in the
+ * hold. The bot has to swap it in first instead of steering the piece in play there.
+ *
+ * <pre>java -cp ./bin tetris/TetrisBotReplanTest</pre>
+ */
+public class TetrisBotReplanTest {
+
+	private static final long[] SEEDS = { 4, 10 };
+	private static final int PIECE_LIMIT = 300;
+	private static final int TICKS_PER_BOT_MOVE = 2;
+
+	public static void main(String[] args) {
+		for (long seed : SEEDS) {
+			play(seed);
+		}
+		System.out.println("OK");
+	}
+
+	private static void play(long seed) {
+		TetrisImpl tetris = new TetrisImpl(seed);
+		TetrisBot bot = new TetrisBot(tetris);
+
+		int replans = 0;
+		TetrisBot.ScoredPos planned = null;
+		int plannedPieces = -1;
+		while (!tetris.isGameOver() && tetris.getPiecesPlaced() < PIECE_LIMIT) {
+			bot.play();
+
+			// A new placement for the same piece, without a swap in between, is a new plan
+			// made after the path was lost
+			if (bot.bestPlacement != null && bot.bestPlacement != planned) {
+				if (planned != null && tetris.getPiecesPlaced() == plannedPieces) replans++;
+				planned = bot.bestPlacement;
+				plannedPieces = tetris.getPiecesPlaced();
+			}
+
+			if (bot.bestPlacement != null && bot.bestPlacement.swap && tetris.canSwap()) {
+				throw new AssertionError("Seed "+seed+", piece "+tetris.getPiecesPlaced()
+						+": the bot steers the piece in play to a placement planned for the held piece");
+			}
+
+			for (int i = 0; i < TICKS_PER_BOT_MOVE; i++) {
+				tetris.updateTick();
+			}
+		}
+
+		if (replans == 0) throw new AssertionError("Seed "+seed+": the bot never planned again, the test does not cover the replan");
+		System.out.println("Seed "+seed+": "+tetris.getPiecesPlaced()+" pieces, "+replans+" plans made again");
+	}
+
+}